@@ -1,8 +1,10 @@
 package org.zk.cpca.core;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.zk.cpca.model.Area;
@@ -10,105 +12,474 @@ import org.zk.cpca.model.City;
 import org.zk.cpca.model.Province;
 import org.zk.cpca.model.Town;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
+ * 行政区划数据校验
+ * 所有问题一次性汇总并附带 JSON 路径。JSON 文本在一次流式读取中边读边校验，不绑定任何对象；
+ * 已绑定的省份数据（加载流程本来就要绑定）每个省份单次遍历，省份之间并行
+ * <p>
+ * 名称或代码为空、代码不是 9 位数字、代码重复为错误，加载时直接失败；
+ * 代码与上级前缀不一致、同一上级下名称重复、简称指向的全称不存在为警告，只记录日志，不影响加载
+ *
  * @author zk
  */
 @Slf4j
 public class AddressDataValidator {
+    private static final int CODE_LENGTH = 9;
 
+    /**
+     * 各层级编码中由上级决定的前缀位数：市继承省的前 2 位，区县继承市的前 4 位，街道继承区县的前 6 位
+     */
+    private static final int CITY_PREFIX = 2;
+    private static final int AREA_PREFIX = 4;
+    private static final int TOWN_PREFIX = 6;
+
+    /**
+     * 按层级（省、市、区县、街道）排列的名称、前缀位数与下级列表字段
+     */
+    private static final String[] LABELS = {"省份", "城市", "区县", "街道/镇"};
+    private static final int[] PREFIXES = {0, CITY_PREFIX, AREA_PREFIX, TOWN_PREFIX};
+    private static final String[] CHILDREN = {"citys", "areas", "towns"};
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public enum Severity {
+        /**
+         * 数据不可用，加载时直接失败
+         */
+        ERROR,
+        /**
+         * 不影响加载，只记录日志
+         */
+        WARNING
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Violation {
+        private Severity severity;
+        private String path;
+        private String message;
+
+        @Override
+        public String toString() {
+            return severity + " " + path + ": " + message;
+        }
+    }
+
+    /**
+     * 校验 json 文本，存在错误时抛出 IllegalArgumentException，消息中列出全部错误
+     */
     public static void validateJsonFormat(String jsonData) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            List<Province> provinces = mapper.readValue(jsonData,
-                    new TypeReference<List<Province>>() {
-                    });
+        report(validate(jsonData));
+    }
 
-            if (provinces == null || provinces.isEmpty()) {
-                throw new IllegalArgumentException("JSON数据必须包含至少一个省份");
-            }
+    /**
+     * 校验已绑定的省份数据，存在错误时抛出 IllegalArgumentException，消息中列出全部错误
+     */
+    public static void validateProvinces(List<Province> provinces) {
+        report(validate(provinces));
+    }
 
-            // 验证每个省份的数据
-            for (Province province : provinces) {
-                validateProvince(province);
-            }
+    private static void report(List<Violation> violations) {
+        List<Violation> errors = new ArrayList<>();
+        List<Violation> warnings = new ArrayList<>();
+        for (Violation violation : violations) {
+            (violation.getSeverity() == Severity.ERROR ? errors : warnings).add(violation);
+        }
+        if (!warnings.isEmpty()) {
+            log.warn("数据校验发现 {} 处警告:\n{}", warnings.size(),
+                    warnings.stream().map(Violation::toString).collect(Collectors.joining("\n")));
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("数据校验失败，共 " + errors.size() + " 处错误:\n"
+                    + errors.stream().map(Violation::toString).collect(Collectors.joining("\n")));
+        }
 
-            log.info("JSON数据格式验证通过");
+        log.info("JSON数据格式验证通过");
+    }
 
-        } catch (JsonProcessingException e) {
-            log.error("JSON格式无效", e);
-            throw new IllegalArgumentException("无效的JSON格式: " + e.getMessage(), e);
+    /**
+     * 校验 json 文本并返回全部问题，不抛出校验异常；JSON 本身无法解析或结构不对时抛出 IllegalArgumentException
+     */
+    public static List<Violation> validate(String jsonData) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonData)) {
+            return new StreamCheck().run(parser);
+        } catch (IOException e) {
+            throw invalidJson(e);
         }
     }
 
-    private static void validateProvince(Province province) {
-        // 验证省级数据
-        if (StringUtils.isBlank(province.getName())) {
-            throw new IllegalArgumentException("省份名称不能为空");
+    /**
+     * 流式校验，适合不想整体读入内存的大文件，流由调用方关闭
+     */
+    public static List<Violation> validate(InputStream in) {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return new StreamCheck().run(parser);
+        } catch (IOException e) {
+            throw invalidJson(e);
         }
-        if (StringUtils.isBlank(province.getCode())) {
-            throw new IllegalArgumentException("省份代码不能为空");
+    }
+
+    private static IllegalArgumentException invalidJson(IOException e) {
+        log.error("JSON格式无效", e);
+        return new IllegalArgumentException("无效的JSON格式: " + e.getMessage(), e);
+    }
+
+    /**
+     * 校验已绑定的省份数据并返回全部问题，不抛出校验异常
+     */
+    public static List<Violation> validate(List<Province> provinces) {
+        List<Violation> violations = new ArrayList<>();
+        if (provinces == null || provinces.isEmpty()) {
+            violations.add(new Violation(Severity.ERROR, "$", "JSON数据必须包含至少一个省份"));
+            return violations;
         }
-        if (!province.getCode().matches("\\d{9}")) {
-            throw new IllegalArgumentException("省份代码必须是9位数字: " + province.getCode());
+
+        List<ProvinceCheck> checks = IntStream.range(0, provinces.size())
+                .parallel()
+                .mapToObj(i -> new ProvinceCheck("$[" + i + "]").run(provinces.get(i)))
+                .collect(Collectors.toList());
+
+        // 跨省合并：编码全局唯一、省份名称不重复、简称指向的全称存在
+        Map<String, String> codePaths = new HashMap<>();
+        Map<String, String> provinceNamePaths = new HashMap<>();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < checks.size(); i++) {
+            ProvinceCheck check = checks.get(i);
+            violations.addAll(check.violations);
+            mergeCodes(codePaths, check.codePaths, violations);
+            checkDuplicateName(provinceNamePaths, provinces.get(i).getName(), "$[" + i + "]", violations);
+            names.addAll(check.names);
         }
 
-        // 验证市级数据
-        if (province.getCitys() != null) {
-            for (City city : province.getCitys()) {
-                validateCity(city);
+        checkShortNames(names, violations);
+        return violations;
+    }
+
+    /**
+     * 省内编码已各自查重，合并进全局时再查跨省重复，问题接在该省自身的问题之后
+     */
+    private static void mergeCodes(Map<String, String> codePaths, Map<String, String> provinceCodes,
+                                   List<Violation> violations) {
+        for (Map.Entry<String, String> entry : provinceCodes.entrySet()) {
+            String first = codePaths.putIfAbsent(entry.getKey(), entry.getValue());
+            if (first != null) {
+                violations.add(new Violation(Severity.ERROR, entry.getValue() + ".code",
+                        "编码重复: " + entry.getKey() + "，与 " + first + " 相同"));
             }
         }
     }
 
-    private static void validateCity(City city) {
-        if (StringUtils.isBlank(city.getName())) {
-            throw new IllegalArgumentException("城市名称不能为空");
+    private static void checkShortNames(Set<String> names, List<Violation> violations) {
+        for (Map.Entry<String, String> entry : ShortNameDict.getShortNameMap().entrySet()) {
+            if (!names.contains(entry.getValue())) {
+                violations.add(new Violation(Severity.WARNING, "short_name[" + entry.getKey() + "]",
+                        "简称指向的全称不存在: " + entry.getValue()));
+            }
         }
-        if (StringUtils.isBlank(city.getCode())) {
-            throw new IllegalArgumentException("城市代码不能为空");
+    }
+
+    private static void checkDuplicateName(Map<String, String> siblings, String name, String path,
+                                           List<Violation> violations) {
+        if (name == null) {
+            return;
         }
-        if (!city.getCode().matches("\\d{9}")) {
-            throw new IllegalArgumentException("城市代码必须是9位数字: " + city.getCode());
+        String first = siblings.putIfAbsent(name, path);
+        if (first != null) {
+            violations.add(new Violation(Severity.WARNING, path + ".name",
+                    "同一上级下名称重复: " + name + "，与 " + first + " 相同"));
         }
+    }
 
-        // 验证区县级数据
-        if (city.getAreas() != null) {
-            for (Area area : city.getAreas()) {
-                validateArea(area);
+    /**
+     * 逐字符判断是否为固定长度的数字编码，避免每个节点编译正则
+     */
+    static boolean isDigits(String code, int length) {
+        if (code.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char ch = code.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
             }
         }
+        return true;
     }
 
-    private static void validateArea(Area area) {
-        if (StringUtils.isBlank(area.getName())) {
-            throw new IllegalArgumentException("区县名称不能为空");
+    /**
+     * 单个省份的一次遍历校验，结果留在本地，由调用方合并
+     */
+    private static class ProvinceCheck {
+        private final String basePath;
+        private final List<Violation> violations = new ArrayList<>();
+        private final Map<String, String> codePaths = new LinkedHashMap<>();
+        private final Set<String> names = new HashSet<>();
+
+        ProvinceCheck(String basePath) {
+            this.basePath = basePath;
         }
-        if (StringUtils.isBlank(area.getCode())) {
-            throw new IllegalArgumentException("区县代码不能为空");
+
+        ProvinceCheck run(Province province) {
+            boolean valid = checkNode(basePath, "省份", province.getName(), province.getCode(), null, 0);
+
+            List<City> citys = province.getCitys();
+            if (citys != null) {
+                Map<String, String> siblings = new HashMap<>();
+                for (int i = 0; i < citys.size(); i++) {
+                    String path = basePath + ".citys[" + i + "]";
+                    City city = citys.get(i);
+                    checkDuplicateName(siblings, city.getName(), path, violations);
+                    checkCity(path, city, valid ? province.getCode() : null);
+                }
+            }
+            return this;
         }
-        if (!area.getCode().matches("\\d{9}")) {
-            throw new IllegalArgumentException("区县代码必须是9位数字: " + area.getCode());
+
+        private void checkCity(String path, City city, String parentCode) {
+            boolean valid = checkNode(path, "城市", city.getName(), city.getCode(), parentCode, CITY_PREFIX);
+
+            List<Area> areas = city.getAreas();
+            if (areas != null) {
+                Map<String, String> siblings = new HashMap<>();
+                for (int i = 0; i < areas.size(); i++) {
+                    String areaPath = path + ".areas[" + i + "]";
+                    Area area = areas.get(i);
+                    checkDuplicateName(siblings, area.getName(), areaPath, violations);
+                    checkArea(areaPath, area, valid ? city.getCode() : null);
+                }
+            }
         }
 
-        // 验证街道/镇级数据
-        if (area.getTowns() != null) {
-            for (Town town : area.getTowns()) {
-                validateTown(town);
+        private void checkArea(String path, Area area, String parentCode) {
+            boolean valid = checkNode(path, "区县", area.getName(), area.getCode(), parentCode, AREA_PREFIX);
+
+            List<Town> towns = area.getTowns();
+            if (towns != null) {
+                Map<String, String> siblings = new HashMap<>();
+                for (int i = 0; i < towns.size(); i++) {
+                    String townPath = path + ".towns[" + i + "]";
+                    Town town = towns.get(i);
+                    checkDuplicateName(siblings, town.getName(), townPath, violations);
+                    checkNode(townPath, "街道/镇", town.getName(), town.getCode(),
+                            valid ? area.getCode() : null, TOWN_PREFIX);
+                }
             }
         }
+
+        /**
+         * @return 编码是否合法，不合法时下级不再做前缀检查，避免同一个问题重复报告
+         */
+        private boolean checkNode(String path, String label, String name, String code,
+                                  String parentCode, int prefixLength) {
+            if (StringUtils.isBlank(name)) {
+                violations.add(new Violation(Severity.ERROR, path + ".name", label + "名称不能为空"));
+            } else {
+                names.add(name);
+            }
+
+            if (StringUtils.isBlank(code)) {
+                violations.add(new Violation(Severity.ERROR, path + ".code", label + "代码不能为空"));
+                return false;
+            }
+            if (!isDigits(code, CODE_LENGTH)) {
+                violations.add(new Violation(Severity.ERROR, path + ".code",
+                        label + "代码必须是" + CODE_LENGTH + "位数字: " + code));
+                return false;
+            }
+
+            String first = codePaths.putIfAbsent(code, path);
+            if (first != null) {
+                violations.add(new Violation(Severity.ERROR, path + ".code",
+                        "编码重复: " + code + "，与 " + first + " 相同"));
+            }
+            if (parentCode != null && !code.regionMatches(0, parentCode, 0, prefixLength)) {
+                violations.add(new Violation(Severity.WARNING, path + ".code",
+                        label + "代码 " + code + " 与上级代码 " + parentCode + " 的前" + prefixLength + "位不一致"));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 一次流式读取完成全部检查，内存只与编码个数（查重）和问题个数有关，与对象树无关
+     * <p>
+     * 问题的顺序与绑定后遍历相同：先是节点自身，再按顺序是各下级。节点在对象结束时才能确定名称与代码，
+     * 因此下级的问题先暂存在上级，上级结束时接在上级自身的问题之后；
+     * 编码在读到 code 字段时登记到本省，省份结束后再与已读省份合并查重，与绑定后的校验一致
+     */
+    private static class StreamCheck {
+        private final Map<String, String> codePaths = new HashMap<>();
+        private Map<String, String> provinceCodes;
+        private final Map<String, String> provinceNamePaths = new HashMap<>();
+        private final Set<String> names = new HashSet<>();
+
+        List<Violation> run(JsonParser parser) throws IOException {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("无效的JSON格式: 顶层必须是省份数组");
+            }
+            List<Violation> violations = new ArrayList<>();
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                String path = "$[" + index++ + "]";
+                provinceCodes = new LinkedHashMap<>();
+                Node province = readNode(parser, 0, path, null);
+                violations.addAll(province.violations);
+                mergeCodes(codePaths, provinceCodes, violations);
+                checkDuplicateName(provinceNamePaths, province.name, path, violations);
+            }
+            if (index == 0) {
+                violations.add(new Violation(Severity.ERROR, "$", "JSON数据必须包含至少一个省份"));
+                return violations;
+            }
+            checkShortNames(names, violations);
+            return violations;
+        }
+
+        private Node readNode(JsonParser parser, int level, String path, Node parent) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("无效的JSON格式: " + path + " 必须是对象");
+            }
+            Node node = new Node(level, path);
+            while (parser.nextToken() != JsonToken.END_OBJECT) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("name".equals(field)) {
+                    node.name = scalar(parser, token, path + ".name");
+                } else if ("code".equals(field)) {
+                    node.readCode(scalar(parser, token, path + ".code"), provinceCodes);
+                } else if (level < CHILDREN.length && CHILDREN[level].equals(field) && token != JsonToken.VALUE_NULL) {
+                    if (token != JsonToken.START_ARRAY) {
+                        throw new IllegalArgumentException("无效的JSON格式: " + path + "." + field + " 必须是数组");
+                    }
+                    int index = 0;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        readNode(parser, level + 1, path + "." + field + "[" + index++ + "]", node);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            node.finish(parent, names);
+            return node;
+        }
+
+        private static String scalar(JsonParser parser, JsonToken token, String path) throws IOException {
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("无效的JSON格式: " + path + " 必须是字符串");
+            }
+            return token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+        }
     }
 
-    private static void validateTown(Town town) {
-        if (StringUtils.isBlank(town.getName())) {
-            throw new IllegalArgumentException("街道/镇名称不能为空");
+    /**
+     * 流式校验中正在读取的一个节点
+     */
+    private static class Node {
+        private final int level;
+        private final String path;
+        private String name;
+        private String code;
+        private boolean codeRead;
+        private String duplicateOf;
+        private boolean prefixPending;
+        // 自身的问题与全部下级的问题，交给上级之前分开保存，便于补上延后的前缀检查
+        private final List<Violation> violations = new ArrayList<>();
+        private List<Violation> descendants = new ArrayList<>();
+        private Map<String, String> childNames;
+        // 在本节点 code 字段之前读完的下级，等本节点读完再检查前缀并按原顺序交出问题
+        private List<Node> waitingForCode;
+
+        Node(int level, String path) {
+            this.level = level;
+            this.path = path;
+        }
+
+        void readCode(String value, Map<String, String> codePaths) {
+            code = value;
+            codeRead = true;
+            if (validCode()) {
+                duplicateOf = codePaths.putIfAbsent(code, path);
+            }
         }
-        if (StringUtils.isBlank(town.getCode())) {
-            throw new IllegalArgumentException("街道/镇代码不能为空");
+
+        boolean validCode() {
+            return !StringUtils.isBlank(code) && isDigits(code, CODE_LENGTH);
         }
-        if (!town.getCode().matches("\\d{9}")) {
-            throw new IllegalArgumentException("街道/镇代码必须是9位数字: " + town.getCode());
+
+        /**
+         * 对象读完：按绑定遍历的顺序生成自身的问题，接上下级的问题，交给上级
+         */
+        void finish(Node parent, Set<String> names) {
+            String label = LABELS[level];
+            if (parent != null) {
+                if (parent.childNames == null) {
+                    parent.childNames = new HashMap<>();
+                }
+                checkDuplicateName(parent.childNames, name, path, violations);
+            }
+            if (StringUtils.isBlank(name)) {
+                violations.add(new Violation(Severity.ERROR, path + ".name", label + "名称不能为空"));
+            } else {
+                names.add(name);
+            }
+
+            if (StringUtils.isBlank(code)) {
+                violations.add(new Violation(Severity.ERROR, path + ".code", label + "代码不能为空"));
+            } else if (!isDigits(code, CODE_LENGTH)) {
+                violations.add(new Violation(Severity.ERROR, path + ".code",
+                        label + "代码必须是" + CODE_LENGTH + "位数字: " + code));
+            } else {
+                if (duplicateOf != null) {
+                    violations.add(new Violation(Severity.ERROR, path + ".code",
+                            "编码重复: " + code + "，与 " + duplicateOf + " 相同"));
+                }
+                if (parent != null && parent.codeRead) {
+                    checkPrefix(parent);
+                } else {
+                    prefixPending = parent != null;
+                }
+            }
+
+            if (waitingForCode != null) {
+                List<Violation> ordered = new ArrayList<>();
+                for (Node child : waitingForCode) {
+                    if (child.prefixPending) {
+                        child.checkPrefix(this);
+                    }
+                    ordered.addAll(child.violations);
+                    ordered.addAll(child.descendants);
+                }
+                ordered.addAll(descendants);
+                descendants = ordered;
+                waitingForCode = null;
+            }
+
+            if (parent == null) {
+                violations.addAll(descendants);
+            } else if (parent.codeRead) {
+                parent.descendants.addAll(violations);
+                parent.descendants.addAll(descendants);
+            } else {
+                if (parent.waitingForCode == null) {
+                    parent.waitingForCode = new ArrayList<>();
+                }
+                parent.waitingForCode.add(this);
+            }
+        }
+
+        private void checkPrefix(Node parent) {
+            int prefixLength = PREFIXES[level];
+            if (parent.validCode() && !code.regionMatches(0, parent.code, 0, prefixLength)) {
+                violations.add(new Violation(Severity.WARNING, path + ".code", LABELS[level] + "代码 " + code
+                        + " 与上级代码 " + parent.code + " 的前" + prefixLength + "位不一致"));
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package org.zk.cpca.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.zk.cpca.model.ParseResult;
+import org.zk.cpca.model.Province;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 多版本行政区划注册表
+ * <p>
+ * 各版本合并为一棵并集树，共用一张 {@link NodeTable}：同一上级下名称与代码都相同的区划是同一个节点，
+ * 节点号、上级/层级/代码等基本类型数组、反查表、组合索引与 JSON 字面量只有一份，每个节点另带一个版本位掩码。
+ * 区划对象（Province/City/Area/Town）按节点复用，下级完全相同的对象在版本间共享，名称与代码字符串只有一份；
+ * AC 自动机同样只有一棵，输出按版本位掩码区分。
+ * 新增版本只为变化的区划增加节点、为变化所在的上级链增加对象，占用随版本间的变化量增长，不随版本数成倍增长
+ * <p>
+ * 各版本各自持有的只有：本版本的省份列表、数据指纹，以及首次使用时构建的联想索引与拼音索引
+ *
+ * @author zk
+ */
+@Slf4j
+public class AddressDatasetRegistry {
+    /**
+     * 版本掩码为 long，最多支持 64 个版本
+     */
+    public static final int MAX_VERSIONS = Long.SIZE;
+
+    private final Map<String, AddressParser> parsers;
+    private final AhoCorasickAutomaton automaton;
+
+    private AddressDatasetRegistry(Map<String, String> versionToJson) {
+        if (versionToJson.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个数据版本");
+        }
+        if (versionToJson.size() > MAX_VERSIONS) {
+            throw new IllegalArgumentException("最多支持 " + MAX_VERSIONS + " 个数据版本: " + versionToJson.size());
+        }
+
+        List<List<Province>> versions = new ArrayList<>(versionToJson.size());
+        for (String json : versionToJson.values()) {
+            List<Province> provinces = AddressIndex.readProvinces(json);
+            AddressDataValidator.validateProvinces(provinces);
+            versions.add(provinces);
+        }
+        NodeTable table = NodeTable.merge(versions);
+
+        // 所有版本的关键词并集共用一棵字典树
+        this.automaton = new AhoCorasickAutomaton();
+        for (String keyword : table.keywords()) {
+            automaton.addPattern(keyword, table.keywordVersions(keyword));
+        }
+        automaton.buildFailurePointers();
+
+        Map<String, AddressParser> map = new LinkedHashMap<>();
+        int bit = 0;
+        for (String version : versionToJson.keySet()) {
+            long versionBit = 1L << bit;
+            AddressIndex index = new AddressIndex(table, versionBit, versions.get(bit++));
+            map.put(version, new AddressParser(index, automaton, versionBit));
+        }
+        this.parsers = Collections.unmodifiableMap(map);
+        log.info("Loaded {} dataset versions, {} shared nodes, {} shared keywords", parsers.size(),
+                table.nodeCount(), table.keywords().size());
+    }
+
+    /**
+     * 从 resources 目录加载多个版本
+     *
+     * @param versionToResource 版本号 -> resources 下的文件路径，按插入顺序分配版本位
+     */
+    public static AddressDatasetRegistry fromResources(Map<String, String> versionToResource) {
+        Map<String, String> jsons = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : versionToResource.entrySet()) {
+            jsons.put(entry.getKey(), AddressParser.readResource(entry.getValue()));
+        }
+        return new AddressDatasetRegistry(jsons);
+    }
+
+    /**
+     * 从外部文件加载多个版本
+     */
+    public static AddressDatasetRegistry fromFiles(Map<String, Path> versionToFile) {
+        Map<String, String> jsons = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> entry : versionToFile.entrySet()) {
+            jsons.put(entry.getKey(), AddressParser.readFile(entry.getValue()));
+        }
+        return new AddressDatasetRegistry(jsons);
+    }
+
+    public List<ParseResult> parse(String address, String version) {
+        return getParser(version).parse(address);
+    }
+
+    public List<ParseResult> parse(String address, String version, FilterCondition filter) {
+        return getParser(version).parse(address, filter);
+    }
+
+    /**
+     * 获取指定版本的解析器，与其它版本共享底层数据
+     */
+    public AddressParser getParser(String version) {
+        AddressParser parser = parsers.get(version);
+        if (parser == null) {
+            throw new IllegalArgumentException("Unknown dataset version: " + version);
+        }
+        return parser;
+    }
+
+    public Set<String> getVersions() {
+        return parsers.keySet();
+    }
+}
@@ -1,86 +1,223 @@
 package org.zk.cpca.core;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.zk.cpca.model.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * 反查索引 AddressIndex
  * 支持百万级 traceUp 精准查找
+ * <p>
+ * 每个行政区划节点按深度优先（先序）顺序编号，一个节点的全部下级正好是 [nodeId + 1, subtreeEnd) 这一段连续编号，
+ * 上下级判断是一次区间比较，某层级的下级个数是在该层级有序节点号上的两次二分查找
+ * <p>
+ * 节点数据存放在 {@link NodeTable} 中，本类是其中一个版本的视图：注册表的各版本共用一张表与同一套节点号，
+ * 查询只返回属于本版本的节点；单独构建的解析器只有一个版本，不做任何过滤
  *
  * @author zk
  */
 @Slf4j
 public class AddressIndex {
+    private final NodeTable table;
+    private final long versionMask;
     private final List<Province> provinces;
-    private final Set<String> keywords;
-    private final Map<String, List<AddressTrace>> reverseIndex;
+    private final long fingerprint;
 
     public AddressIndex(String jsonData) {
+        this(jsonData, AddressLevel.TOWN);
+    }
+
+    /**
+     * @param maxLevel 索引到的最低层级，更低层级不会被反序列化
+     */
+    public AddressIndex(String jsonData, AddressLevel maxLevel) {
+        this(readProvinces(jsonData, maxLevel), false);
+    }
+
+    public AddressIndex(String jsonData, ParserOptions options) {
+        this(selectProvinces(readProvinces(jsonData, options.getMaxLevel(), options.isParallelBuild()),
+                options.getProvinces()), options.isParallelBuild());
+    }
+
+    /**
+     * 基于已加载的省份数据构建单个版本
+     *
+     * @param parallel 按省份并行构建，按原顺序合并，节点号与串行构建相同
+     */
+    AddressIndex(List<Province> provinces, boolean parallel) {
+        this(new NodeTable(provinces, parallel), AhoCorasickAutomaton.ALL_VERSIONS, provinces);
+    }
+
+    /**
+     * 共享节点表中 versionMask 对应版本的视图
+     */
+    AddressIndex(NodeTable table, long versionMask, List<Province> provinces) {
+        this.table = table;
+        this.versionMask = versionMask;
+        this.provinces = provinces;
+        this.fingerprint = computeFingerprint();
+    }
+
+    /**
+     * 从二进制格式还原节点表，只还原 versionMask 对应版本的区划对象列表
+     */
+    static AddressIndex readFrom(ParserCodec.Reader reader, long versionMask) throws IOException {
+        NodeTable table = NodeTable.readFrom(reader, versionMask);
+        return new AddressIndex(table, versionMask, table.provinces(versionMask));
+    }
+
+    /**
+     * 写出整张节点表，多版本时包含全部版本
+     */
+    void writeTo(ParserCodec.Writer writer) throws IOException {
+        table.writeTo(writer);
+    }
+
+    NodeTable table() {
+        return table;
+    }
+
+    static List<Province> readProvinces(String jsonData) {
+        return readProvinces(jsonData, AddressLevel.TOWN);
+    }
+
+    static List<Province> readProvinces(String jsonData, AddressLevel maxLevel) {
+        return readProvinces(jsonData, maxLevel, false);
+    }
+
+    /**
+     * @param parallel 按顶层数组元素切分后并行绑定各省份，切分失败时退回整体绑定
+     */
+    static List<Province> readProvinces(String jsonData, AddressLevel maxLevel, boolean parallel) {
         ObjectMapper mapper = new ObjectMapper();
+        // 在绑定阶段忽略下级列表，被裁掉的层级不会产生任何对象
+        if (!maxLevel.includes(AddressLevel.TOWN)) {
+            mapper.addMixIn(Area.class, IgnoreTowns.class);
+        }
+        if (!maxLevel.includes(AddressLevel.AREA)) {
+            mapper.addMixIn(City.class, IgnoreAreas.class);
+        }
+        if (!maxLevel.includes(AddressLevel.CITY)) {
+            mapper.addMixIn(Province.class, IgnoreCitys.class);
+        }
         try {
-            Province[] provinceArray = mapper.readValue(jsonData, Province[].class);
-            this.provinces = Arrays.asList(provinceArray);
-            this.keywords = new HashSet<>();
-            this.reverseIndex = new HashMap<>();
-            buildKeywordSetAndIndex();
-        } catch (JsonProcessingException e) {
+            List<int[]> elements = parallel ? splitTopLevelArray(jsonData) : null;
+            if (elements == null) {
+                Province[] provinceArray = mapper.readValue(jsonData, Province[].class);
+                return Arrays.asList(provinceArray);
+            }
+            return elements.parallelStream().map(range -> {
+                try {
+                    return mapper.readValue(jsonData.substring(range[0], range[1]), Province.class);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (JsonProcessingException | IllegalStateException e) {
             log.error("Failed to parse JSON data", e);
             throw new RuntimeException("Failed to initialize AddressIndex", e);
         }
     }
 
     /**
-     * 关键词收集 + 反查索引构建
+     * 找出顶层数组各元素在文本中的 [start, end) 区间，文本不是数组或括号不配对时返回 null
      */
-    private void buildKeywordSetAndIndex() {
-        for (Province province : provinces) {
-            if (province.getName() != null) {
-                keywords.add(province.getName());
-                addToReverseIndex(province.getName(), new AddressTrace(province, null, null, null));
+    private static List<int[]> splitTopLevelArray(String json) {
+        int i = 0;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        if (i == json.length() || json.charAt(i) != '[') {
+            return null;
+        }
+        List<int[]> elements = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        boolean inString = false;
+        for (i = i + 1; i < json.length(); i++) {
+            char ch = json.charAt(i);
+            if (inString) {
+                if (ch == '\\') {
+                    i++;
+                } else if (ch == '"') {
+                    inString = false;
+                }
+                continue;
             }
-
-            for (City city : safe(province.getCitys())) {
-                if (city.getName() != null) {
-                    keywords.add(city.getName());
-                    addToReverseIndex(city.getName(), new AddressTrace(province, city, null, null));
+            if (start < 0 && !Character.isWhitespace(ch) && ch != ',' && ch != ']') {
+                start = i;
+            }
+            if (ch == '"') {
+                inString = true;
+            } else if (ch == '{' || ch == '[') {
+                depth++;
+            } else if (ch == '}' || (ch == ']' && depth > 0)) {
+                depth--;
+            } else if (depth == 0 && (ch == ',' || ch == ']')) {
+                if (start >= 0) {
+                    elements.add(new int[]{start, i});
+                    start = -1;
                 }
-
-                for (Area area : safe(city.getAreas())) {
-                    if (area.getName() != null) {
-                        keywords.add(area.getName());
-                        addToReverseIndex(area.getName(), new AddressTrace(province, city, area, null));
-                    }
-
-                    for (Town town : safe(area.getTowns())) {
-                        if (town.getName() != null) {
-                            keywords.add(town.getName());
-                            addToReverseIndex(town.getName(), new AddressTrace(province, city, area, town));
-                        }
-                    }
+                if (ch == ']') {
+                    return elements;
                 }
             }
         }
+        return null;
     }
 
-    private void addToReverseIndex(String keyword, AddressTrace trace) {
-        if (keyword == null) {
-            return;
+    /**
+     * 按省份名（全称或简称）过滤，names 为空时保留全部
+     */
+    static List<Province> selectProvinces(List<Province> provinces, Set<String> names) {
+        if (names == null || names.isEmpty()) {
+            return provinces;
+        }
+        Set<String> fullNames = new HashSet<>();
+        for (String name : names) {
+            fullNames.add(ShortNameDict.toFullName(name));
         }
-        reverseIndex.computeIfAbsent(keyword, k -> new ArrayList<>()).add(trace);
+        List<Province> selected = new ArrayList<>();
+        for (Province province : provinces) {
+            if (fullNames.contains(province.getName())) {
+                selected.add(province);
+            }
+        }
+        return selected;
+    }
+
+    @JsonIgnoreProperties(value = "towns", ignoreUnknown = true)
+    private interface IgnoreTowns {
+    }
+
+    @JsonIgnoreProperties(value = "areas", ignoreUnknown = true)
+    private interface IgnoreAreas {
     }
 
-    private <T> List<T> safe(List<T> list) {
-        return list == null ? Collections.emptyList() : list;
+    @JsonIgnoreProperties(value = "citys", ignoreUnknown = true)
+    private interface IgnoreCitys {
     }
 
     /**
-     * 获取全部关键词（用于构建 AC 自动机）
+     * 获取本版本的全部关键词（用于构建 AC 自动机）；单个版本时即反查索引的键，不再单独保存一份
      */
     public Set<String> getAllKeywords() {
+        if (table.versionCount() <= 1) {
+            return Collections.unmodifiableSet(table.keywords());
+        }
+        Set<String> keywords = new HashSet<>();
+        for (String keyword : table.keywords()) {
+            if ((table.keywordVersions(keyword) & versionMask) != 0) {
+                keywords.add(keyword);
+            }
+        }
         return Collections.unmodifiableSet(keywords);
     }
 
@@ -88,10 +225,253 @@ public class AddressIndex {
      * 高性能反查：从关键词查出所有 AddressTrace 路径
      */
     public List<AddressTrace> traceUp(String keyword) {
-        if (keyword == null) {
+        int[] ids = keyword == null ? null : nodeIds(keyword);
+        if (ids == null) {
             return Collections.emptyList();
         }
-        return reverseIndex.getOrDefault(keyword, Collections.emptyList());
+        return new AbstractList<AddressTrace>() {
+            @Override
+            public AddressTrace get(int index) {
+                return table.trace(ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    /**
+     * 关键词对应的全部节点号
+     */
+    public int[] getNodeIds(String keyword) {
+        int[] ids = keyword == null ? null : nodeIds(keyword);
+        return ids == null ? new int[0] : ids.clone();
+    }
+
+    /**
+     * 内部使用，返回的数组不可修改；本版本没有该关键词时返回 null
+     */
+    int[] nodeIds(String keyword) {
+        return table.nodeIds(keyword, versionMask);
+    }
+
+    /**
+     * 节点是否属于本版本
+     */
+    boolean contains(int nodeId) {
+        return table.contains(nodeId, versionMask);
+    }
+
+    /**
+     * 节点号的上界；注册表的各版本共用一套节点号，为全部版本的节点总数
+     */
+    public int getNodeCount() {
+        return table.nodeCount();
+    }
+
+    /**
+     * 数据指纹，按节点号依次混入本版本各节点的代码、上级与层级；节点个数相同但数据或编号不同的两份索引指纹不同
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private long computeFingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        int count = 0;
+        for (int i = 0; i < table.nodeCount(); i++) {
+            if (!contains(i)) {
+                continue;
+            }
+            hash = (hash ^ table.code(i)) * 0x100000001b3L;
+            hash = (hash ^ ((long) table.parent(i) << 8 | table.level(i))) * 0x100000001b3L;
+            count++;
+        }
+        return hash ^ count;
+    }
+
+    /**
+     * 节点的路径对象；多版本时各层对象取该节点首次出现的版本中的实例，名称与代码与本版本相同
+     */
+    public AddressTrace getTrace(int nodeId) {
+        return table.trace(nodeId);
+    }
+
+    public AddressLevel getLevel(int nodeId) {
+        return AddressLevel.values()[table.level(nodeId)];
+    }
+
+    int levelOrdinal(int nodeId) {
+        return table.level(nodeId);
+    }
+
+    /**
+     * 上级节点号，省级节点返回 -1
+     */
+    public int getParent(int nodeId) {
+        return table.parent(nodeId);
+    }
+
+    /**
+     * 数值形式的区划代码，原始代码缺失或不是纯数字时为 0
+     */
+    public long getCode(int nodeId) {
+        return table.code(nodeId);
+    }
+
+    /**
+     * 按区划代码查本版本的节点号，找不到时返回 -1
+     */
+    public int getNodeId(String code) {
+        return table.nodeId(NodeTable.parseCode(code), versionMask);
+    }
+
+    /**
+     * 直接下级的节点号
+     */
+    public int[] children(int nodeId) {
+        int end = table.subtreeEnd(nodeId);
+        int size = 0;
+        for (int child = nodeId + 1; child < end; child = table.subtreeEnd(child)) {
+            if (contains(child)) {
+                size++;
+            }
+        }
+        int[] result = new int[size];
+        int i = 0;
+        for (int child = nodeId + 1; child < end; child = table.subtreeEnd(child)) {
+            if (contains(child)) {
+                result[i++] = child;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 直接下级的区划代码，代码不存在时返回空数组
+     */
+    public long[] children(String code) {
+        int nodeId = getNodeId(code);
+        return nodeId < 0 ? new long[0] : toCodes(children(nodeId));
+    }
+
+    /**
+     * 指定层级的全部下级节点号，level 为空时返回全部下级
+     */
+    public int[] descendants(int nodeId, AddressLevel level) {
+        int[] result;
+        if (level == null) {
+            result = new int[table.subtreeEnd(nodeId) - nodeId - 1];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = nodeId + 1 + i;
+            }
+        } else {
+            int[] ids = table.levelNodes(level.ordinal());
+            result = Arrays.copyOfRange(ids, lowerBound(ids, nodeId + 1), lowerBound(ids, table.subtreeEnd(nodeId)));
+        }
+        if (table.versionCount() <= 1) {
+            return result;
+        }
+        int size = 0;
+        for (int id : result) {
+            if (contains(id)) {
+                result[size++] = id;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * 指定层级的全部下级区划代码，如叶县下的全部街道；代码不存在时返回空数组
+     */
+    public long[] descendants(String code, AddressLevel level) {
+        int nodeId = getNodeId(code);
+        return nodeId < 0 ? new long[0] : toCodes(descendants(nodeId, level));
+    }
+
+    /**
+     * 子树末尾（不含），[nodeId, subtreeEnd) 为节点自身及全部下级；多版本时区间内可能有其它版本的节点
+     */
+    int subtreeEnd(int nodeId) {
+        return table.subtreeEnd(nodeId);
+    }
+
+    /**
+     * ancestor 是否为 nodeId 的上级（不含自身）
+     */
+    public boolean isAncestor(int ancestor, int nodeId) {
+        return ancestor < nodeId && nodeId < table.subtreeEnd(ancestor);
+    }
+
+    public boolean isAncestor(String ancestorCode, String code) {
+        int ancestor = getNodeId(ancestorCode);
+        int nodeId = getNodeId(code);
+        return ancestor >= 0 && nodeId >= 0 && isAncestor(ancestor, nodeId);
+    }
+
+    /**
+     * 指定层级的下级个数，level 为空时统计全部下级；多版本时逐个判断所属版本
+     */
+    public int count(int nodeId, AddressLevel level) {
+        if (table.versionCount() > 1) {
+            return descendants(nodeId, level).length;
+        }
+        if (level == null) {
+            return table.subtreeEnd(nodeId) - nodeId - 1;
+        }
+        int[] ids = table.levelNodes(level.ordinal());
+        return lowerBound(ids, table.subtreeEnd(nodeId)) - lowerBound(ids, nodeId + 1);
+    }
+
+    public int count(String code, AddressLevel level) {
+        int nodeId = getNodeId(code);
+        return nodeId < 0 ? 0 : count(nodeId, level);
+    }
+
+    /**
+     * 第一个不小于 value 的位置
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private long[] toCodes(int[] ids) {
+        long[] result = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = table.code(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 两个不同关键词构成上下级关系时可以直接给出的结果节点号，不能直接给出时返回 null，见 {@link PairIndex}
+     */
+    int[] pairNodes(int keywordA, int keywordB) {
+        return table.pairNodes(keywordA, keywordB, versionMask);
+    }
+
+    /**
+     * 节点名称对应的关键词编号：同名节点中最小的节点号，同名即同号
+     */
+    int keywordId(int nodeId) {
+        return table.keywordId(nodeId);
+    }
+
+    /**
+     * 节点自身的名称
+     */
+    public String getName(int nodeId) {
+        return table.name(nodeId);
+    }
+
+    /**
+     * 节点所在完整链的 UTF-8 JSON 对象，见 {@link NodeTable#writeJson}
+     */
+    void writeJson(int nodeId, OutputStream out) throws IOException {
+        table.writeJson(nodeId, out);
     }
 
     public List<Province> getProvinces() {
@@ -3,17 +3,19 @@ package org.zk.cpca.core;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.zk.cpca.model.AddressTrace;
+import org.zk.cpca.model.AmbiguityPolicy;
+import org.zk.cpca.model.CodeColumns;
 import org.zk.cpca.model.ParseResult;
+import org.zk.cpca.model.Province;
+import org.zk.cpca.model.RankedResult;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * 省市区解析，支持加载外部json格式数据
@@ -21,10 +23,21 @@ import java.util.stream.Collectors;
  * @author zk
  */
 @Slf4j
-public class AddressParser {
+public class AddressParser implements Serializable {
+    private static final long serialVersionUID = 1L;
     private static final String DEFAULT_JSON_FILE = "cpca_2025.json";
-    private final AddressIndex addressIndex;
-    private final AhoCorasickAutomaton automaton;
+    private final transient AddressIndex addressIndex;
+    private final transient AhoCorasickAutomaton automaton;
+    private final transient long versionMask;
+    private final transient ParserOptions options;
+    private final transient PinyinIndex pinyinIndex;
+    private transient volatile String datasetVersion;
+    private transient volatile SuggestIndex suggestIndex;
+
+    /**
+     * 每个前缀预先保存的补全个数
+     */
+    private static final int SUGGEST_INDEX_SIZE = 16;
 
     /**
      * 使用默认的资源文件初始化
@@ -39,17 +52,144 @@ public class AddressParser {
      * @param resourcePath resources目录下的文件路径
      */
     public AddressParser(String resourcePath) {
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resourcePath)) {
-            if (inputStream == null) {
-                throw new IllegalStateException("Resource not found: " + resourcePath);
-            }
+        this(resourcePath, ParserOptions.defaults());
+    }
+
+    /**
+     * 使用指定的资源文件与构建选项初始化
+     *
+     * @param resourcePath resources目录下的文件路径
+     * @param options      构建选项
+     */
+    public AddressParser(String resourcePath, ParserOptions options) {
+        String jsonData = readResource(resourcePath);
+        boolean parallel = options.isParallelBuild();
+
+        // 只绑定一次，校验与建索引共用同一份数据
+        long start = System.nanoTime();
+        List<Province> provinces = AddressIndex.readProvinces(jsonData, options.getMaxLevel(), parallel);
+        AddressDataValidator.validateProvinces(provinces);
+        long bound = System.nanoTime();
+
+        this.addressIndex = new AddressIndex(AddressIndex.selectProvinces(provinces, options.getProvinces()),
+                parallel);
+        long indexed = System.nanoTime();
+        this.automaton = buildAutomaton(addressIndex, parallel);
+        logBuildTimings(parallel, start, bound, indexed);
+        this.versionMask = AhoCorasickAutomaton.ALL_VERSIONS;
+        this.options = options;
+        this.pinyinIndex = options.isPinyin() ? new PinyinIndex(addressIndex) : null;
+    }
+
+    /**
+     * 使用外部文件路径初始化
+     */
+    public AddressParser(Path jsonFilePath) {
+        this(jsonFilePath, ParserOptions.defaults());
+    }
+
+    /**
+     * 使用外部文件路径与构建选项初始化
+     */
+    public AddressParser(Path jsonFilePath, ParserOptions options) {
+        String jsonData = readFile(jsonFilePath);
+
+        long start = System.nanoTime();
+        this.addressIndex = new AddressIndex(jsonData, options);
+        long indexed = System.nanoTime();
+        this.automaton = buildAutomaton(addressIndex, options.isParallelBuild());
+        logBuildTimings(options.isParallelBuild(), start, start, indexed);
+        this.versionMask = AhoCorasickAutomaton.ALL_VERSIONS;
+        this.options = options;
+        this.pinyinIndex = options.isPinyin() ? new PinyinIndex(addressIndex) : null;
+    }
+
+    /**
+     * 使用已构建的索引与共享自动机初始化，只接受自动机中属于 versionMask 的关键词
+     */
+    AddressParser(AddressIndex addressIndex, AhoCorasickAutomaton automaton, long versionMask) {
+        this(addressIndex, automaton, versionMask, ParserOptions.defaults());
+    }
+
+    AddressParser(AddressIndex addressIndex, AhoCorasickAutomaton automaton, long versionMask,
+                  ParserOptions options) {
+        this.addressIndex = addressIndex;
+        this.automaton = automaton;
+        this.versionMask = versionMask;
+        this.options = options;
+        this.pinyinIndex = options.isPinyin() ? new PinyinIndex(addressIndex) : null;
+    }
+
+    /**
+     * 从已绑定的省份数据构建，只取 options.provinces 选中的省份，供分片等需要复用同一份数据的场景使用
+     */
+    static AddressParser fromProvinces(List<Province> provinces, ParserOptions options) {
+        boolean parallel = options.isParallelBuild();
+        AddressIndex addressIndex = new AddressIndex(AddressIndex.selectProvinces(provinces, options.getProvinces()),
+                parallel);
+        return new AddressParser(addressIndex, buildAutomaton(addressIndex, parallel),
+                AhoCorasickAutomaton.ALL_VERSIONS, options);
+    }
+
+    /**
+     * 底层索引，可用于按节点号或区划代码做上下级查询
+     */
+    public AddressIndex getAddressIndex() {
+        return addressIndex;
+    }
+
+    /**
+     * 导出为紧凑的二进制形式（索引 + 已建好失败指针的自动机）
+     */
+    public byte[] toBytes() {
+        return ParserCodec.encode(addressIndex, automaton, versionMask, options);
+    }
+
+    /**
+     * 从 {@link #toBytes()} 的结果还原，不做 JSON 绑定、索引构建与自动机构建
+     */
+    public static AddressParser fromBytes(byte[] bytes) {
+        return ParserCodec.decode(bytes);
+    }
+
+    /**
+     * 数据版本：紧凑二进制形式的 SHA-256，内容相同的解析器版本相同
+     */
+    public String getDatasetVersion() {
+        String version = datasetVersion;
+        if (version == null) {
+            version = SerializedParser.digest(toBytes());
+            datasetVersion = version;
+        }
+        return version;
+    }
 
-            String jsonData = readInputStream(inputStream);
+    /**
+     * Java 序列化时以紧凑二进制形式代替对象本身，反序列化时同一 JVM 内按数据版本共享实例
+     */
+    private Object writeReplace() {
+        byte[] bytes = toBytes();
+        String version = datasetVersion;
+        if (version == null) {
+            version = SerializedParser.digest(bytes);
+            datasetVersion = version;
+        }
+        return new SerializedParser(version, bytes);
+    }
 
-            AddressDataValidator.validateJsonFormat(jsonData);
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("AddressParser must be deserialized through SerializedParser");
+    }
 
-            this.addressIndex = new AddressIndex(jsonData);
-            this.automaton = buildAutomaton();
+    /**
+     * 读取 resources 目录下的 json 文件
+     */
+    static String readResource(String resourcePath) {
+        try (InputStream inputStream = AddressParser.class.getClassLoader().getResourceAsStream(resourcePath)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Resource not found: " + resourcePath);
+            }
+            return readInputStream(inputStream);
         } catch (IOException e) {
             log.error("Failed to read JSON file from resources: {}", resourcePath, e);
             throw new RuntimeException("Failed to initialize AddressParser", e);
@@ -57,14 +197,11 @@ public class AddressParser {
     }
 
     /**
-     * 使用外部文件路径初始化
+     * 读取外部 json 文件
      */
-    public AddressParser(Path jsonFilePath) {
+    static String readFile(Path jsonFilePath) {
         try {
-            String jsonData = new String(Files.readAllBytes(jsonFilePath), StandardCharsets.UTF_8);
-
-            this.addressIndex = new AddressIndex(jsonData);
-            this.automaton = buildAutomaton();
+            return new String(Files.readAllBytes(jsonFilePath), StandardCharsets.UTF_8);
         } catch (IOException e) {
             log.error("Failed to read JSON file from path: {}", jsonFilePath, e);
             throw new RuntimeException("Failed to initialize AddressParser", e);
@@ -74,7 +211,7 @@ public class AddressParser {
     /**
      * 将InputStream转换为String的辅助方法
      */
-    private String readInputStream(InputStream inputStream) throws IOException {
+    static String readInputStream(InputStream inputStream) throws IOException {
         try (BufferedReader reader = new BufferedReader(
                 new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
             StringBuilder content = new StringBuilder();
@@ -86,23 +223,28 @@ public class AddressParser {
         }
     }
 
-    private AhoCorasickAutomaton buildAutomaton() {
+    private static AhoCorasickAutomaton buildAutomaton(AddressIndex addressIndex, boolean parallel) {
         AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
 
         if (addressIndex == null || addressIndex.getAllKeywords() == null) {
             throw new IllegalStateException("Address index or keywords are null");
         }
 
-        for (String keyword : addressIndex.getAllKeywords()) {
-            if (keyword != null && !keyword.isEmpty()) {
-                automaton.addPattern(keyword);
-            }
-        }
-
-        automaton.buildFailurePointers();
+        automaton.addPatterns(addressIndex.getAllKeywords(), parallel);
+        automaton.buildFailurePointers(parallel);
         return automaton;
     }
 
+    /**
+     * 记录各构建阶段耗时，bound 与 start 相同表示绑定计入建索引
+     */
+    private static void logBuildTimings(boolean parallel, long start, long bound, long indexed) {
+        long end = System.nanoTime();
+        log.info("AddressParser built {}: bind {} ms, index {} ms, automaton {} ms, total {} ms",
+                parallel ? "in parallel" : "serially", (bound - start) / 1_000_000, (indexed - bound) / 1_000_000,
+                (end - indexed) / 1_000_000, (end - start) / 1_000_000);
+    }
+
     public List<ParseResult> parse(String address) {
         return parse(address, null);
     }
@@ -115,11 +257,19 @@ public class AddressParser {
         address = AddressSupport.toFullName(address);
 
         try {
-            List<AhoCorasickAutomaton.MatchResult> matches = automaton.findAll(address);
+            List<AhoCorasickAutomaton.MatchResult> matches = findMatches(address);
             if (matches == null || matches.isEmpty()) {
                 return Collections.emptyList();
             }
 
+            // 恰好两个关键词且构成上下级关系时，直接查预计算的组合结果
+            if (filter == null) {
+                List<ParseResult> resolved = resolvePair(matches);
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+
             // 获取所有可能的地址组合
             List<ParseResult> allResults = new ArrayList<>();
             for (AhoCorasickAutomaton.MatchResult match : matches) {
@@ -147,6 +297,46 @@ public class AddressParser {
         }
     }
 
+    /**
+     * 只命中两个不同的关键词（均为精确匹配）时查组合索引，返回 null 表示需要走完整流程
+     */
+    private List<ParseResult> resolvePair(List<AhoCorasickAutomaton.MatchResult> matches) {
+        String first = null;
+        String second = null;
+        for (AhoCorasickAutomaton.MatchResult match : matches) {
+            String keyword = match.getKeyword();
+            if (keyword == null || match.getDistance() != 0) {
+                return null;
+            }
+            if (first == null || first.equals(keyword)) {
+                first = keyword;
+            } else if (second == null || second.equals(keyword)) {
+                second = keyword;
+            } else {
+                return null;
+            }
+        }
+        if (second == null) {
+            return null;
+        }
+
+        int[] firstIds = addressIndex.nodeIds(first);
+        int[] secondIds = addressIndex.nodeIds(second);
+        if (firstIds == null || secondIds == null) {
+            return null;
+        }
+        int[] nodeIds = addressIndex.pairNodes(addressIndex.keywordId(firstIds[0]),
+                addressIndex.keywordId(secondIds[0]));
+        if (nodeIds == null) {
+            return null;
+        }
+        List<ParseResult> results = new ArrayList<>(nodeIds.length);
+        for (int nodeId : nodeIds) {
+            results.add(convertTraceToResult(addressIndex.getTrace(nodeId)));
+        }
+        return results;
+    }
+
     /**
      * 找到最佳的地址组合
      */
@@ -155,43 +345,944 @@ public class AddressParser {
             return allResults;
         }
 
-        Set<String> matchedKeywords = matches.stream()
-                .map(AhoCorasickAutomaton.MatchResult::getKeyword)
-                .collect(Collectors.toSet());
+        Map<String, Integer> matchedKeywords = collectKeywords(matches);
 
         // 构建得分 + 完整性标志
         List<ScoredResult> scoredResults = new ArrayList<>();
         for (ParseResult result : allResults) {
-            int score = calculateMatchScore(result, matchedKeywords);
-            boolean isComplete = isCompleteChain(result);
-            int matchedLength = calculateMatchedLength(result, matches);
-            scoredResults.add(new ScoredResult(result, score, matchedLength, isComplete));
+            scoredResults.add(scoreResult(result, matchedKeywords, matches));
         }
 
-        // 排序策略：完整链 > 分数 > 匹配长度
-        scoredResults.sort((a, b) -> {
-            // 完整优先
-            if (a.complete != b.complete) {
-                return Boolean.compare(b.complete, a.complete);
-            }
-
-            int cmp = Integer.compare(b.score, a.score);
-            if (cmp != 0) {
-                return cmp;
-            }
-            return Integer.compare(b.length, a.length);
-        });
+        // 排序策略：完整链 > 分数 > 编辑距离 > 匹配长度
+        scoredResults.sort(RANKING);
 
         int bestScore = scoredResults.get(0).score;
         boolean bestComplete = scoredResults.get(0).complete;
+        int bestEdits = scoredResults.get(0).edits;
         int bestLength = scoredResults.get(0).length;
 
         return scoredResults.stream()
-                .filter(sr -> sr.complete == bestComplete && sr.score == bestScore && sr.length == bestLength)
+                .filter(sr -> sr.complete == bestComplete && sr.score == bestScore && sr.edits == bestEdits
+                        && sr.length == bestLength)
                 .map(sr -> sr.result)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 解析并返回排名前 k 的候选结果，附带分数、覆盖长度与完整性
+     * 使用容量为 k 的小顶堆，候选再多也只保留并排序 k 个
+     *
+     * @param address 地址
+     * @param k       返回的最大结果数
+     */
+    public List<RankedResult> parseTopK(String address, int k) {
+        return parseTopK(address, k, null);
+    }
+
+    public List<RankedResult> parseTopK(String address, int k, FilterCondition filter) {
+        if (StringUtils.isBlank(address) || k <= 0) {
+            return Collections.emptyList();
+        }
+
+        try {
+            // 候选只以节点号与分数进堆，留下的 k 个才创建结果对象
+            NodeRanking ranking = new NodeRanking();
+            int size = ranking.rankTopK(address, filter, k);
+            RankedResult[] ranked = new RankedResult[size];
+            for (int i = 0; i < size; i++) {
+                ParseResult result = convertTraceToResult(addressIndex.getTrace(ranking.winners[i]));
+                ranked[i] = new RankedResult(result, ranking.topScores[i], ranking.topEdits[i],
+                        ranking.topLengths[i], ranking.topCompletes[i]);
+            }
+            return Arrays.asList(ranked);
+
+        } catch (Exception e) {
+            log.error("Error parsing address: " + address, e);
+            return Collections.emptyList();
+        }
+    }
+
+    public void parseColumns(List<String> addresses, CodeColumns columns) {
+        parseColumns(addresses, columns, null);
+    }
+
+    /**
+     * 批量解析，把每行的最佳结果按列写入 columns（第 i 个地址写第 i 行）
+     * <p>
+     * 排序规则与 {@link #parse} 相同，同分的多个结果取名称排序最前的一个，并在 ambiguity 列记下同分个数。
+     * 候选直接按节点号展开与打分，沿上级节点号取各层代码，不创建 ParseResult 与 MatchResult；
+     * 简称替换写入复用的缓冲区，不产生新字符串。开启近似匹配或输入为拼音时该行退回普通匹配流程
+     *
+     * @param addresses 地址列表，可以包含 null
+     * @param columns   输出列，行数不能少于地址数
+     * @param filter    限定范围，可为空
+     */
+    public void parseColumns(List<String> addresses, CodeColumns columns, FilterCondition filter) {
+        if (addresses.size() > columns.size()) {
+            throw new IllegalArgumentException("Columns have " + columns.size() + " rows, but "
+                    + addresses.size() + " addresses were given");
+        }
+        NodeRanking ranking = new NodeRanking();
+        for (int row = 0; row < addresses.size(); row++) {
+            int winners = ranking.rank(addresses.get(row), filter);
+            int best = winners == 0 ? -1 : ranking.winners[0];
+            columns.getProvinceCodes()[row] = ranking.codeAt(best, 0);
+            columns.getCityCodes()[row] = ranking.codeAt(best, 1);
+            columns.getAreaCodes()[row] = ranking.codeAt(best, 2);
+            columns.getTownCodes()[row] = ranking.codeAt(best, 3);
+            columns.getAmbiguity()[row] = winners;
+            columns.getScores()[row] = winners == 0 ? 0 : ranking.bestScore;
+        }
+    }
+
+    /**
+     * 流式聚合：逐行取最佳结果，在按节点号索引的计数表上累加，不保留任何逐行结果
+     *
+     * @param addresses 地址迭代器，可以是 {@code stream.iterator()}
+     * @param policy    歧义行的处理方式
+     */
+    public DivisionCounts aggregate(Iterator<String> addresses, AmbiguityPolicy policy) {
+        DivisionCounts counts = new DivisionCounts(addressIndex);
+        aggregate(addresses, policy, counts);
+        return counts;
+    }
+
+    /**
+     * 累加到已有的计数表，计数表必须由当前解析器创建
+     */
+    public void aggregate(Iterator<String> addresses, AmbiguityPolicy policy, DivisionCounts counts) {
+        if (!counts.belongsTo(addressIndex)) {
+            throw new IllegalArgumentException("DivisionCounts belongs to another parser");
+        }
+        NodeRanking ranking = new NodeRanking();
+        while (addresses.hasNext()) {
+            int winners = ranking.rank(addresses.next(), null);
+            counts.recordRow(winners > 0, winners > 1);
+            if (winners == 1 || (winners > 1 && policy == AmbiguityPolicy.FIRST)) {
+                counts.add(ranking.winners[0]);
+            } else if (winners > 1 && policy == AmbiguityPolicy.ALL) {
+                for (int i = 0; i < winners; i++) {
+                    counts.add(ranking.winners[i]);
+                }
+            } else if (winners > 1 && policy == AmbiguityPolicy.COMMON_ANCESTOR) {
+                int ancestor = ranking.commonAncestor(winners);
+                if (ancestor >= 0) {
+                    counts.add(ancestor);
+                }
+            }
+        }
+    }
+
+    public void writeResultJson(String address, OutputStream out) throws IOException {
+        writeResultJson(address, null, out);
+    }
+
+    /**
+     * 解析并把结果以 JSON 数组写出，内容与 {@link #parse} 的结果一致，每个元素另带各级代码
+     * <p>
+     * 各级名称与代码的 UTF-8 JSON 字面量在构建索引时编码好，每个结果只沿上级拼接字节，
+     * 不经过反射序列化，也不产生中间字符串
+     *
+     * @param address 地址
+     * @param filter  限定范围，可为空
+     * @param out     输出流，写完不关闭
+     */
+    public void writeResultJson(String address, FilterCondition filter, OutputStream out) throws IOException {
+        NodeRanking ranking = new NodeRanking();
+        int winners = ranking.rank(address, filter);
+        out.write('[');
+        for (int i = 0; i < winners; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            addressIndex.writeJson(ranking.winners[i], out);
+        }
+        out.write(']');
+    }
+
+    /**
+     * 按节点号展开与打分的工作区，排序规则与 {@link #parse} 相同，各数组在多次调用之间复用，不能跨线程共用
+     * <p>
+     * 工作区是内部类，隐式引用解析器，因此只按调用创建（批量接口在一次调用内复用），不放进 ThreadLocal：
+     * 否则线程池里用过它的每个线程都会一直持有解析器，注册表版本或广播的解析器无法回收
+     * <p>
+     * 简称替换与关键词扫描都使用可续扫的扫描器：输入排好序或成组时，与上一个地址相同的前缀只重放已有匹配，不再扫描
+     */
+    private final class NodeRanking {
+        private FilterCondition filter;
+        private final AhoCorasickAutomaton.MatchHandler exactHandler = (keyword, start, end) -> hit(keyword, start, end, 0);
+        private final AddressSupport.FullNameBuffer text = new AddressSupport.FullNameBuffer();
+        private final AhoCorasickAutomaton.ResumableScanner scanner = automaton.newScanner(versionMask);
+
+        // 本次命中的关键词：关键词编号、最小编辑距离、命中总长度、对应的全部节点号
+        private int[] keywords = new int[16];
+        private int[] distances = new int[16];
+        private int[] lengths = new int[16];
+        private int[][] nodeIds = new int[16][];
+        private int count;
+
+        // 同分的最佳结果，按名称排序，名称完全相同的只保留一个；rankTopK 时为按排名排好的前 k 个
+        private int[] winners = new int[16];
+        private boolean bestComplete;
+        private int bestScore;
+        private int bestEdits;
+        private int bestLength;
+
+        // 当前候选的打分结果，见 evaluate
+        private boolean complete;
+        private int score;
+        private int edits;
+        private int length;
+
+        // rankTopK 的堆（堆顶为当前最差），节点号放在 winners，与其下标对齐的分数、编辑距离、覆盖长度与完整性
+        private int[] topScores = new int[16];
+        private int[] topEdits = new int[16];
+        private int[] topLengths = new int[16];
+        private boolean[] topCompletes = new boolean[16];
+
+        // 各层节点号，下标为层级
+        private final int[] chain = new int[4];
+        private final int[] left = new int[4];
+        private final int[] right = new int[4];
+
+        /**
+         * @return 同分最佳结果的个数，结果保存在 winners 的前若干位
+         */
+        int rank(String address, FilterCondition filter) {
+            collectHits(address, filter);
+
+            int winnerCount = 0;
+            for (int k = 0; k < count; k++) {
+                for (int nodeId : nodeIds[k]) {
+                    if (!evaluate(nodeId)) {
+                        continue;
+                    }
+                    int cmp = winnerCount == 0 ? -1
+                            : compareRank(complete, score, edits, length,
+                                    bestComplete, bestScore, bestEdits, bestLength);
+                    if (cmp < 0) {
+                        winnerCount = 0;
+                        bestComplete = complete;
+                        bestScore = score;
+                        bestEdits = edits;
+                        bestLength = length;
+                    }
+                    if (cmp <= 0) {
+                        winnerCount = addWinner(nodeId, winnerCount);
+                    }
+                }
+            }
+            return winnerCount;
+        }
+
+        /**
+         * 排名前 k 的候选，与 {@link #parseTopK} 的排序一致：完整链 > 分数 > 编辑距离 > 匹配长度 > 名称
+         * 堆中只放节点号与分数，不创建任何结果对象
+         *
+         * @return 结果个数，按排名保存在 winners、topScores、topEdits、topLengths、topCompletes 的前若干位
+         */
+        int rankTopK(String address, FilterCondition filter, int k) {
+            collectHits(address, filter);
+
+            int size = 0;
+            for (int h = 0; h < count; h++) {
+                for (int nodeId : nodeIds[h]) {
+                    if (!evaluate(nodeId)) {
+                        continue;
+                    }
+                    if (size < k) {
+                        if (size == topScores.length) {
+                            growHeap(Math.min(k, size * 2));
+                        }
+                        setHeap(size, nodeId, score, edits, length, complete);
+                        siftUp(size++);
+                    } else if (compareCandidate(score, edits, length, complete, nodeId, 0) < 0) {
+                        setHeap(0, nodeId, score, edits, length, complete);
+                        siftDown(0, size);
+                    }
+                }
+            }
+
+            // 依次把堆顶（最差）换到末尾，整段变为从好到差
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return size;
+        }
+
+        private void collectHits(String address, FilterCondition filter) {
+            this.filter = filter;
+            count = 0;
+            if (StringUtils.isNotBlank(address)) {
+                if (options.getFuzzyMaxEdits() > 0 || (pinyinIndex != null && PinyinIndex.isRomanized(address))) {
+                    for (AhoCorasickAutomaton.MatchResult match : findMatches(AddressSupport.toFullName(address))) {
+                        hit(match.getKeyword(), match.getStart(), match.getEnd(), match.getDistance());
+                    }
+                } else {
+                    scanner.scan(text.expand(address), exactHandler);
+                }
+            }
+        }
+
+        /**
+         * 给候选打分，结果写入 complete、score、edits、length
+         *
+         * @return 是否通过过滤条件
+         */
+        private boolean evaluate(int nodeId) {
+            fillChain(nodeId, chain);
+            if (!passFilter(chain)) {
+                return false;
+            }
+            complete = addressIndex.levelOrdinal(nodeId) >= 2;
+            score = 0;
+            edits = 0;
+            length = 0;
+            for (int level = 0; level < chain.length; level++) {
+                if (chain[level] < 0) {
+                    continue;
+                }
+                int slot = slotOf(addressIndex.keywordId(chain[level]));
+                if (slot < 0) {
+                    continue;
+                }
+                score += 4 - level;
+                edits += distances[slot];
+                if (!sameKeywordAbove(level)) {
+                    length += lengths[slot];
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 候选与堆中第 i 个比较，返回负数表示候选更好
+         */
+        private int compareCandidate(int score, int edits, int length, boolean complete, int nodeId, int i) {
+            int cmp = compareRank(complete, score, edits, length,
+                    topCompletes[i], topScores[i], topEdits[i], topLengths[i]);
+            return cmp != 0 ? cmp : compareNodes(nodeId, winners[i]);
+        }
+
+        /**
+         * 堆中第 a 个是否比第 b 个更差
+         */
+        private boolean worse(int a, int b) {
+            return compareCandidate(topScores[a], topEdits[a], topLengths[a], topCompletes[a], winners[a], b) > 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int size) {
+            while (true) {
+                int worst = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && worse(left, worst)) {
+                    worst = left;
+                }
+                if (right < size && worse(right, worst)) {
+                    worst = right;
+                }
+                if (worst == i) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void setHeap(int i, int nodeId, int score, int edits, int length, boolean complete) {
+            winners[i] = nodeId;
+            topScores[i] = score;
+            topEdits[i] = edits;
+            topLengths[i] = length;
+            topCompletes[i] = complete;
+        }
+
+        private void swap(int a, int b) {
+            int nodeId = winners[a];
+            int score = topScores[a];
+            int edits = topEdits[a];
+            int length = topLengths[a];
+            boolean complete = topCompletes[a];
+            setHeap(a, winners[b], topScores[b], topEdits[b], topLengths[b], topCompletes[b]);
+            setHeap(b, nodeId, score, edits, length, complete);
+        }
+
+        private void growHeap(int capacity) {
+            if (capacity > winners.length) {
+                winners = Arrays.copyOf(winners, capacity);
+            }
+            topScores = Arrays.copyOf(topScores, capacity);
+            topEdits = Arrays.copyOf(topEdits, capacity);
+            topLengths = Arrays.copyOf(topLengths, capacity);
+            topCompletes = Arrays.copyOf(topCompletes, capacity);
+        }
+
+        /**
+         * 按名称顺序插入，与已有结果名称完全相同时跳过（对应 parse 中的去重）
+         */
+        private int addWinner(int nodeId, int winnerCount) {
+            int position = winnerCount;
+            while (position > 0) {
+                int cmp = compareNodes(nodeId, winners[position - 1]);
+                if (cmp == 0) {
+                    return winnerCount;
+                }
+                if (cmp > 0) {
+                    break;
+                }
+                position--;
+            }
+            if (winnerCount == winners.length) {
+                winners = Arrays.copyOf(winners, winnerCount * 2);
+            }
+            System.arraycopy(winners, position, winners, position + 1, winnerCount - position);
+            winners[position] = nodeId;
+            return winnerCount + 1;
+        }
+
+        /**
+         * 前 winners 个结果最近的共同上级（可以是其中某个结果本身），没有时返回 -1
+         */
+        int commonAncestor(int winnerCount) {
+            int ancestor = winners[0];
+            for (int i = 1; i < winnerCount && ancestor >= 0; i++) {
+                int nodeId = winners[i];
+                while (ancestor >= 0 && ancestor != nodeId && !addressIndex.isAncestor(ancestor, nodeId)) {
+                    ancestor = addressIndex.getParent(ancestor);
+                }
+            }
+            return ancestor;
+        }
+
+        /**
+         * 节点在指定层级的上级（或自身）的代码，没有该层级时为 0
+         */
+        long codeAt(int nodeId, int level) {
+            for (int id = nodeId; id >= 0; id = addressIndex.getParent(id)) {
+                if (addressIndex.levelOrdinal(id) == level) {
+                    return addressIndex.getCode(id);
+                }
+            }
+            return 0L;
+        }
+
+        private void hit(String keyword, int start, int end, int distance) {
+            int[] ids = addressIndex.nodeIds(keyword);
+            if (ids == null) {
+                return;
+            }
+            int slot = slotOf(ids[0]);
+            if (slot >= 0) {
+                distances[slot] = Math.min(distances[slot], distance);
+                lengths[slot] += end - start;
+                return;
+            }
+            if (count == keywords.length) {
+                keywords = Arrays.copyOf(keywords, count * 2);
+                distances = Arrays.copyOf(distances, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                nodeIds = Arrays.copyOf(nodeIds, count * 2);
+            }
+            keywords[count] = ids[0];
+            distances[count] = distance;
+            lengths[count] = end - start;
+            nodeIds[count] = ids;
+            count++;
+        }
+
+        private int slotOf(int keywordId) {
+            for (int i = 0; i < count; i++) {
+                if (keywords[i] == keywordId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 与 calculateMatchedLength 一致：上级与本级同名时命中长度只算一次
+         */
+        private boolean sameKeywordAbove(int level) {
+            int keywordId = addressIndex.keywordId(chain[level]);
+            for (int above = 0; above < level; above++) {
+                if (chain[above] >= 0 && addressIndex.keywordId(chain[above]) == keywordId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void fillChain(int nodeId, int[] target) {
+            Arrays.fill(target, -1);
+            for (int id = nodeId; id >= 0; id = addressIndex.getParent(id)) {
+                target[addressIndex.levelOrdinal(id)] = id;
+            }
+        }
+
+        private boolean passFilter(int[] ids) {
+            if (filter == null) {
+                return true;
+            }
+            return matchesName(filter.getProvince(), ids[0])
+                    && matchesName(filter.getCity(), ids[1])
+                    && matchesName(filter.getArea(), ids[2]);
+        }
+
+        private boolean matchesName(String expected, int nodeId) {
+            return expected == null || (nodeId >= 0 && expected.equals(addressIndex.getName(nodeId)));
+        }
+
+        /**
+         * 与 RANKING 一致：完整链 > 分数 > 编辑距离 > 匹配长度，返回负数表示前者更好
+         */
+        private int compareRank(boolean complete, int score, int edits, int length,
+                                boolean otherComplete, int otherScore, int otherEdits, int otherLength) {
+            if (complete != otherComplete) {
+                return complete ? -1 : 1;
+            }
+            if (score != otherScore) {
+                return score > otherScore ? -1 : 1;
+            }
+            if (edits != otherEdits) {
+                return edits < otherEdits ? -1 : 1;
+            }
+            return Integer.compare(otherLength, length);
+        }
+
+        /**
+         * 与 RESULT_ORDER 一致：逐层比较名称，缺失的层级排在后面
+         */
+        private int compareNodes(int nodeA, int nodeB) {
+            fillChain(nodeA, left);
+            fillChain(nodeB, right);
+            int[] a = left;
+            int[] b = right;
+            for (int level = 0; level < a.length; level++) {
+                if (a[level] == b[level]) {
+                    continue;
+                }
+                if (a[level] < 0 || b[level] < 0) {
+                    return a[level] < 0 ? 1 : -1;
+                }
+                int cmp = addressIndex.getName(a[level]).compareTo(addressIndex.getName(b[level]));
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+
+    public List<ParseResult> suggest(String prefix, int limit) {
+        return suggest(prefix, limit, null);
+    }
+
+    /**
+     * 输入联想：按前缀返回候选区划的完整链
+     * <p>
+     * 走到字典树中的前缀节点后直接取预计算的补全列表（省 > 市 > 区县 > 街道，同级名称短的优先），
+     * 不做子树遍历；支持简称前缀（如“新”→“新疆”），前面已输完整的区划作为上级范围，
+     * 如“湖北省黄”只补全湖北省下以“黄”开头的区划。
+     * 有上级范围或 filter 时若预计算列表被筛完，只扫描上级在节点号上的子树区间；
+     * 没有范围且 limit 超过预计算列表长度时才展开字典树的前缀子树
+     *
+     * @param prefix 用户已输入的内容
+     * @param limit  返回的最大条数
+     * @param filter 限定范围，可为空
+     */
+    public List<ParseResult> suggest(String prefix, int limit, FilterCondition filter) {
+        if (StringUtils.isBlank(prefix) || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        SuggestIndex index = getSuggestIndex();
+        String text = prefix.trim();
+
+        // 先把整段输入当作前缀；不是任何区划名的前缀时，切掉前面已完整命中的区划作为上级范围
+        String fragment = text;
+        List<String> parents = Collections.emptyList();
+        if (!index.hasPrefix(automaton, text)) {
+            // 全称与简称都算完整命中，简称换成全称参与范围判断
+            List<AhoCorasickAutomaton.MatchResult> matches = new ArrayList<>();
+            for (AhoCorasickAutomaton.MatchResult match : automaton.findAll(text, versionMask)) {
+                if (addressIndex.nodeIds(match.getKeyword()) != null) {
+                    matches.add(match);
+                }
+            }
+            for (AhoCorasickAutomaton.MatchResult match : index.abbreviations.findAll(text)) {
+                matches.add(new AhoCorasickAutomaton.MatchResult(ShortNameDict.toFullName(match.getKeyword()),
+                        match.getStart(), match.getEnd()));
+            }
+
+            AhoCorasickAutomaton.MatchResult cut = null;
+            for (AhoCorasickAutomaton.MatchResult match : matches) {
+                String rest = text.substring(match.getEnd());
+                if ((rest.isEmpty() || index.hasPrefix(automaton, rest))
+                        && (cut == null || match.getEnd() > cut.getEnd())) {
+                    cut = match;
+                }
+            }
+            if (cut == null) {
+                return Collections.emptyList();
+            }
+
+            // 输入恰好以完整区划结尾时，补全的就是这个区划本身
+            boolean endsWithName = cut.getEnd() == text.length();
+            int fragmentStart = endsWithName ? cut.getStart() : cut.getEnd();
+            fragment = endsWithName ? cut.getKeyword() : text.substring(fragmentStart);
+            parents = new ArrayList<>();
+            for (AhoCorasickAutomaton.MatchResult match : matches) {
+                if (match.getEnd() <= fragmentStart) {
+                    parents.add(match.getKeyword());
+                }
+            }
+        }
+
+        boolean restricted = !parents.isEmpty() || filter != null;
+        int[] names = automaton.lookupPrefix(index.names, fragment);
+        int[] abbreviations = index.abbreviations.lookupPrefix(index.abbreviationIndex, fragment);
+        List<ParseResult> results = collectSuggestions(merge(names, abbreviations), limit, parents, filter);
+
+        boolean truncated = (names != null && names.length == SUGGEST_INDEX_SIZE)
+                || (abbreviations != null && abbreviations.length == SUGGEST_INDEX_SIZE);
+        if (results.size() < limit && truncated && (restricted || limit > SUGGEST_INDEX_SIZE)) {
+            int[] ids = restricted
+                    ? scopedPrefixNodes(index, fragment, scopeRoots(parents, filter))
+                    : prefixNodes(index, fragment);
+            results = collectSuggestions(sortBySuggestPriority(ids), limit, parents, filter);
+        }
+        return results;
+    }
+
+    /**
+     * 上级范围对应的子树根：上级名称与过滤条件中的名称都必须出现在根的上级链上（含自身），
+     * 同名的多个节点都保留，已在其他根子树内的去掉，按节点号排好序
+     */
+    private int[] scopeRoots(List<String> parents, FilterCondition filter) {
+        List<String> required = new ArrayList<>(parents);
+        if (filter != null) {
+            for (String name : new String[]{filter.getProvince(), filter.getCity(), filter.getArea()}) {
+                if (name != null) {
+                    required.add(name);
+                }
+            }
+        }
+
+        IntStream.Builder candidates = IntStream.builder();
+        for (String name : required) {
+            int[] ids = addressIndex.nodeIds(name);
+            if (ids == null) {
+                return new int[0];
+            }
+            for (int id : ids) {
+                if (addressIndex.levelOrdinal(id) <= 2 && allOnChain(id, required)) {
+                    candidates.add(id);
+                }
+            }
+        }
+        int[] roots = candidates.build().sorted().toArray();
+
+        int count = 0;
+        for (int root : roots) {
+            if (count == 0 || root >= addressIndex.subtreeEnd(roots[count - 1])) {
+                roots[count++] = root;
+            }
+        }
+        return Arrays.copyOf(roots, count);
+    }
+
+    private boolean allOnChain(int nodeId, List<String> names) {
+        for (String name : names) {
+            int id = nodeId;
+            while (id >= 0 && !name.equals(addressIndex.getName(id))) {
+                id = addressIndex.getParent(id);
+            }
+            if (id < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只扫描上级子树的节点号区间 [root, subtreeEnd)，名称或简称以 fragment 开头的节点即为候选，
+     * 候选个数与范围大小有关，与全国有多少个同前缀的区划无关
+     */
+    private int[] scopedPrefixNodes(SuggestIndex index, String fragment, int[] roots) {
+        IntStream.Builder ids = IntStream.builder();
+        for (int root : roots) {
+            for (int id = root, end = addressIndex.subtreeEnd(root); id < end; id++) {
+                if (addressIndex.contains(id) && index.startsWith(addressIndex.getName(id), fragment)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids.build().toArray();
+    }
+
+    /**
+     * 没有上级范围且要的结果多于预计算列表时，展开前缀子树；全称与简称可能指向同一节点，排序后去重
+     */
+    private int[] prefixNodes(SuggestIndex index, String fragment) {
+        IntStream.Builder ids = IntStream.builder();
+        automaton.collectPrefix(fragment, addressIndex::nodeIds, ids::add);
+        index.abbreviations.collectPrefix(fragment, index::abbreviationNodes, ids::add);
+        int[] sorted = ids.build().sorted().toArray();
+        int distinct = 0;
+        for (int id : sorted) {
+            if (distinct == 0 || sorted[distinct - 1] != id) {
+                sorted[distinct++] = id;
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private List<ParseResult> collectSuggestions(int[] ids, int limit, List<String> parents, FilterCondition filter) {
+        List<ParseResult> results = new ArrayList<>(Math.min(ids.length, limit));
+        for (int id : ids) {
+            ParseResult result = convertTraceToResult(addressIndex.getTrace(id));
+            if (!passFilter(result, filter) || !withinParents(result, parents)) {
+                continue;
+            }
+            results.add(result);
+            if (results.size() == limit) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    private boolean withinParents(ParseResult result, List<String> parents) {
+        for (String parent : parents) {
+            if (!parent.equals(result.getProvince()) && !parent.equals(result.getCity())
+                    && !parent.equals(result.getArea())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] merge(int[] a, int[] b) {
+        if (a == null || a.length == 0) {
+            return b == null ? new int[0] : b;
+        }
+        if (b == null || b.length == 0) {
+            return a;
+        }
+        int[] all = new int[a.length + b.length];
+        System.arraycopy(a, 0, all, 0, a.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return sortBySuggestPriority(Arrays.stream(all).distinct().toArray());
+    }
+
+    private int[] sortBySuggestPriority(int[] ids) {
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = ((long) suggestPriority(ids[i]) << 32) | ids[i];
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[ids.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * 联想排序：层级高的优先，同级名称短的优先
+     */
+    private int suggestPriority(int nodeId) {
+        return (addressIndex.levelOrdinal(nodeId) << 8) | Math.min(addressIndex.getName(nodeId).length(), 0xFF);
+    }
+
+    private SuggestIndex getSuggestIndex() {
+        SuggestIndex index = suggestIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = suggestIndex;
+                if (index == null) {
+                    index = new SuggestIndex(this);
+                    suggestIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 联想索引，首次调用 suggest 时构建：区划名字典树复用解析用的自动机，简称单独一棵小字典树
+     */
+    private static final class SuggestIndex {
+        private final AddressIndex addressIndex;
+        private final AhoCorasickAutomaton.PrefixIndex names;
+        private final AhoCorasickAutomaton abbreviations;
+        private final AhoCorasickAutomaton.PrefixIndex abbreviationIndex;
+        // 全称 -> 简称，上级范围内逐个节点判断前缀时使用
+        private final Map<String, List<String>> shortNamesOf = new HashMap<>();
+
+        SuggestIndex(AddressParser parser) {
+            this.addressIndex = parser.addressIndex;
+            this.names = parser.automaton.buildPrefixIndex(SUGGEST_INDEX_SIZE,
+                    addressIndex::nodeIds, parser::suggestPriority);
+
+            this.abbreviations = new AhoCorasickAutomaton();
+            for (Map.Entry<String, String> entry : ShortNameDict.getShortNameMap().entrySet()) {
+                if (addressIndex.nodeIds(entry.getValue()) != null) {
+                    abbreviations.addPattern(entry.getKey());
+                    shortNamesOf.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            abbreviations.buildFailurePointers();
+            this.abbreviationIndex = abbreviations.buildPrefixIndex(SUGGEST_INDEX_SIZE,
+                    this::abbreviationNodes, parser::suggestPriority);
+        }
+
+        int[] abbreviationNodes(String abbreviation) {
+            return addressIndex.nodeIds(ShortNameDict.toFullName(abbreviation));
+        }
+
+        /**
+         * 全称或它的某个简称以 prefix 开头
+         */
+        boolean startsWith(String name, String prefix) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+            List<String> shortNames = shortNamesOf.get(name);
+            if (shortNames != null) {
+                for (String shortName : shortNames) {
+                    if (shortName.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean hasPrefix(AhoCorasickAutomaton automaton, String text) {
+            int[] ids = automaton.lookupPrefix(names, text);
+            if (ids != null && ids.length > 0) {
+                return true;
+            }
+            ids = abbreviations.lookupPrefix(abbreviationIndex, text);
+            return ids != null && ids.length > 0;
+        }
+    }
+
+    /**
+     * 精确匹配 + 可选的近似匹配兜底：只对没有被精确匹配覆盖的片段做近似匹配
+     * 开启拼音索引且输入不含汉字时改走拼音自动机
+     */
+    private List<AhoCorasickAutomaton.MatchResult> findMatches(String address) {
+        if (pinyinIndex != null && PinyinIndex.isRomanized(address)) {
+            return pinyinIndex.findAll(address);
+        }
+
+        List<AhoCorasickAutomaton.MatchResult> matches = automaton.findAll(address, versionMask);
+        if (options.getFuzzyMaxEdits() <= 0) {
+            return matches;
+        }
+
+        boolean[] covered = new boolean[address.length()];
+        for (AhoCorasickAutomaton.MatchResult match : matches) {
+            Arrays.fill(covered, match.getStart(), match.getEnd(), true);
+        }
+
+        long deadline = System.nanoTime() + options.getFuzzyBudgetMicros() * 1_000L;
+        List<AhoCorasickAutomaton.MatchResult> all = null;
+        int i = 0;
+        while (i < covered.length) {
+            if (covered[i]) {
+                i++;
+                continue;
+            }
+            int spanStart = i;
+            while (i < covered.length && !covered[i]) {
+                i++;
+            }
+            // 最短可近似的关键词为 3 个字，更短的片段误报多于纠错
+            if (i - spanStart < 3) {
+                continue;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                break;
+            }
+            List<AhoCorasickAutomaton.MatchResult> fuzzy = automaton.findFuzzy(address, spanStart, i,
+                    options.getFuzzyMaxEdits(), versionMask, deadline);
+            for (AhoCorasickAutomaton.MatchResult match : fuzzy) {
+                if (match.getKeyword().length() <= 3 && !confirmedByExact(match.getKeyword(), matches)) {
+                    continue;
+                }
+                if (all == null) {
+                    all = new ArrayList<>(matches);
+                }
+                all.add(match);
+            }
+        }
+        return all == null ? matches : all;
+    }
+
+    /**
+     * 三个字的近似命中只在同一输入精确命中了它的上级或某个下级时保留，
+     * 如"湖北省黄实市下陆区"中的"黄实市"由"湖北省"与"下陆区"确认为黄石市；
+     * 没有上下文的三字错别字更可能是另一个真实地名，不做近似
+     */
+    private boolean confirmedByExact(String keyword, List<AhoCorasickAutomaton.MatchResult> exact) {
+        int[] candidates = addressIndex.nodeIds(keyword);
+        if (candidates == null) {
+            return false;
+        }
+        for (AhoCorasickAutomaton.MatchResult match : exact) {
+            int[] ids = match.getKeyword() == null ? null : addressIndex.nodeIds(match.getKeyword());
+            if (ids == null) {
+                continue;
+            }
+            for (int candidate : candidates) {
+                for (int id : ids) {
+                    if (addressIndex.getParent(candidate) == id || addressIndex.getParent(id) == candidate) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 命中的关键词 -> 最小编辑距离（精确匹配为 0）
+     */
+    private Map<String, Integer> collectKeywords(List<AhoCorasickAutomaton.MatchResult> matches) {
+        Map<String, Integer> keywords = new LinkedHashMap<>();
+        for (AhoCorasickAutomaton.MatchResult match : matches) {
+            if (match.getKeyword() != null) {
+                keywords.merge(match.getKeyword(), match.getDistance(), Math::min);
+            }
+        }
+        return keywords;
+    }
+
+    private ScoredResult scoreResult(ParseResult result, Map<String, Integer> matchedKeywords,
+                                     List<AhoCorasickAutomaton.MatchResult> matches) {
+        int score = calculateMatchScore(result, matchedKeywords);
+        int edits = calculateEdits(result, matchedKeywords);
+        boolean isComplete = isCompleteChain(result);
+        int matchedLength = calculateMatchedLength(result, matches);
+        return new ScoredResult(result, score, edits, matchedLength, isComplete);
+    }
+
     private boolean isCompleteChain(ParseResult result) {
         return result.getProvince() != null && result.getCity() != null && result.getArea() != null;
     }
@@ -216,32 +1307,46 @@ public class AddressParser {
     /**
      * 计算匹配分数
      */
-    private int calculateMatchScore(ParseResult result, Set<String> matchedKeywords) {
+    private int calculateMatchScore(ParseResult result, Map<String, Integer> matchedKeywords) {
         int score = 0;
 
         // 检查省份匹配
-        if (result.getProvince() != null && matchedKeywords.contains(result.getProvince())) {
-            score += 4;
-        }
+        score += levelScore(result.getProvince(), 4, matchedKeywords);
 
         // 检查城市匹配
-        if (result.getCity() != null && matchedKeywords.contains(result.getCity())) {
-            score += 3;
-        }
+        score += levelScore(result.getCity(), 3, matchedKeywords);
 
         // 检查区县匹配
-        if (result.getArea() != null && matchedKeywords.contains(result.getArea())) {
-            score += 2;
-        }
+        score += levelScore(result.getArea(), 2, matchedKeywords);
 
         // 检查街道匹配
-        if (result.getTown() != null && matchedKeywords.contains(result.getTown())) {
-            score += 1;
-        }
+        score += levelScore(result.getTown(), 1, matchedKeywords);
 
         return score;
     }
 
+    /**
+     * 命中该层级得 weight 分，精确命中与近似命中同分，近似命中另在编辑距离上区分
+     */
+    private int levelScore(String name, int weight, Map<String, Integer> matchedKeywords) {
+        return name != null && matchedKeywords.containsKey(name) ? weight : 0;
+    }
+
+    /**
+     * 各层命中的编辑距离之和，全部精确命中时为 0；同分时编辑距离小的排前面
+     */
+    private int calculateEdits(ParseResult result, Map<String, Integer> matchedKeywords) {
+        return levelEdits(result.getProvince(), matchedKeywords)
+                + levelEdits(result.getCity(), matchedKeywords)
+                + levelEdits(result.getArea(), matchedKeywords)
+                + levelEdits(result.getTown(), matchedKeywords);
+    }
+
+    private int levelEdits(String name, Map<String, Integer> matchedKeywords) {
+        Integer distance = name == null ? null : matchedKeywords.get(name);
+        return distance == null ? 0 : distance;
+    }
+
     private ParseResult convertTraceToResult(AddressTrace trace) {
         return ParseResult.builder()
                 .province(trace.getProvince() != null ? trace.getProvince().getName() : null)
@@ -265,13 +1370,40 @@ public class AddressParser {
         return filter.getArea() == null || filter.getArea().equals(result.getArea());
     }
 
+    private static final Comparator<ParseResult> RESULT_ORDER =
+            Comparator.comparing(ParseResult::getProvince, Comparator.nullsLast(String::compareTo))
+                    .thenComparing(ParseResult::getCity, Comparator.nullsLast(String::compareTo))
+                    .thenComparing(ParseResult::getArea, Comparator.nullsLast(String::compareTo))
+                    .thenComparing(ParseResult::getTown, Comparator.nullsLast(String::compareTo));
+
+    /**
+     * 排序策略：完整链 > 分数 > 编辑距离 > 匹配长度，同分时按名称排序保证结果稳定
+     */
+    private static final Comparator<ScoredResult> RANKING = (a, b) -> {
+        // 完整优先
+        if (a.complete != b.complete) {
+            return Boolean.compare(b.complete, a.complete);
+        }
+
+        int cmp = Integer.compare(b.score, a.score);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compare(a.edits, b.edits);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Integer.compare(b.length, a.length);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return RESULT_ORDER.compare(a.result, b.result);
+    };
+
     private List<ParseResult> deduplicateAndSort(List<ParseResult> results) {
         return results.stream()
                 .distinct()
-                .sorted(Comparator.comparing(ParseResult::getProvince, Comparator.nullsLast(String::compareTo))
-                        .thenComparing(ParseResult::getCity, Comparator.nullsLast(String::compareTo))
-                        .thenComparing(ParseResult::getArea, Comparator.nullsLast(String::compareTo))
-                        .thenComparing(ParseResult::getTown, Comparator.nullsLast(String::compareTo)))
+                .sorted(RESULT_ORDER)
                 .collect(Collectors.toList());
     }
 
@@ -281,12 +1413,14 @@ public class AddressParser {
     private static class ScoredResult {
         final ParseResult result;
         final int score;
+        final int edits;
         final int length;
         final boolean complete;
 
-        ScoredResult(ParseResult result, int score, int length, boolean complete) {
+        ScoredResult(ParseResult result, int score, int edits, int length, boolean complete) {
             this.result = result;
             this.score = score;
+            this.edits = edits;
             this.length = length;
             this.complete = complete;
         }
@@ -0,0 +1,40 @@
+package org.zk.cpca.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 进程内按数据版本共享的解析器
+ * Spark / Flink 等场景下同一 executor 内的多个任务只还原一次，之后直接复用
+ *
+ * @author zk
+ */
+public final class AddressParserHolder {
+    private static final Map<String, AddressParser> PARSERS = new ConcurrentHashMap<>();
+
+    private AddressParserHolder() {
+    }
+
+    /**
+     * 获取指定版本的解析器，不存在时用 loader 构建，并发调用只会构建一次
+     */
+    public static AddressParser getOrLoad(String version, Supplier<AddressParser> loader) {
+        return PARSERS.computeIfAbsent(version, v -> loader.get());
+    }
+
+    /**
+     * @return 已加载的解析器，未加载时返回 null
+     */
+    public static AddressParser get(String version) {
+        return PARSERS.get(version);
+    }
+
+    public static void remove(String version) {
+        PARSERS.remove(version);
+    }
+
+    public static void clear() {
+        PARSERS.clear();
+    }
+}
@@ -1,5 +1,8 @@
 package org.zk.cpca.core;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,6 +13,12 @@ public class AddressSupport {
 
     private static final Pattern ABBR_MATCH_PATTERN;
 
+    /**
+     * 与正则等价的简称字典树，值为简称在正则分支中的次序
+     */
+    private static final AhoCorasickAutomaton ABBR_AUTOMATON = new AhoCorasickAutomaton();
+    private static final Map<String, Integer> ABBR_ORDER = new HashMap<>();
+
     static {
         // 构建省/市级简称正则
         StringBuilder sb = new StringBuilder();
@@ -18,8 +27,11 @@ public class AddressSupport {
                 sb.append("|");
             }
             sb.append(Pattern.quote(abbr));
+            ABBR_ORDER.putIfAbsent(abbr, ABBR_ORDER.size());
+            ABBR_AUTOMATON.addPattern(abbr);
         }
         ABBR_MATCH_PATTERN = Pattern.compile(sb.toString());
+        ABBR_AUTOMATON.buildFailurePointers();
     }
 
     /**
@@ -36,4 +48,48 @@ public class AddressSupport {
         matcher.appendTail(sb);
         return sb.toString();
     }
+
+    /**
+     * 可复用的简称替换缓冲区，替换结果与 {@link #toFullName(String)} 相同，但不产生新字符串
+     * <p>
+     * 正则在同一起点按分支次序取第一个命中的简称，然后从简称末尾继续查找，这里按相同规则选取。
+     * 查找简称用可续扫的扫描器，与上一个地址相同的前缀不再重复扫描
+     */
+    static final class FullNameBuffer {
+        private final StringBuilder text = new StringBuilder(64);
+        private String[] chosen = new String[64];
+        private final AhoCorasickAutomaton.MatchHandler choose = this::choose;
+        private final AhoCorasickAutomaton.ResumableScanner scanner =
+                ABBR_AUTOMATON.newScanner(AhoCorasickAutomaton.ALL_VERSIONS);
+
+        CharSequence expand(String raw) {
+            if (chosen.length < raw.length()) {
+                chosen = new String[Math.max(raw.length(), chosen.length * 2)];
+            } else {
+                Arrays.fill(chosen, 0, raw.length(), null);
+            }
+            scanner.scan(raw, choose);
+
+            text.setLength(0);
+            int i = 0;
+            while (i < raw.length()) {
+                String abbr = chosen[i];
+                if (abbr != null) {
+                    text.append(ShortNameDict.toFullName(abbr));
+                    i += abbr.length();
+                } else {
+                    text.append(raw.charAt(i));
+                    i++;
+                }
+            }
+            return text;
+        }
+
+        private void choose(String abbr, int start, int end) {
+            String current = chosen[start];
+            if (current == null || ABBR_ORDER.get(abbr) < ABBR_ORDER.get(current)) {
+                chosen[start] = abbr;
+            }
+        }
+    }
 }
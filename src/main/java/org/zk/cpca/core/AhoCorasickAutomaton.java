@@ -3,12 +3,27 @@ package org.zk.cpca.core;
 import lombok.Data;
 import lombok.ToString;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
 
 /**
  * @author zk
  */
 public class AhoCorasickAutomaton {
+    /**
+     * 不区分版本时使用的掩码
+     */
+    public static final long ALL_VERSIONS = -1L;
+
+    /**
+     * 一层的节点数达到该值才并行计算失败指针，浅层节点少时并行反而更慢
+     */
+    private static final int PARALLEL_LEVEL_SIZE = 1024;
+
     private final TrieNode root;
 
     public AhoCorasickAutomaton() {
@@ -16,49 +31,143 @@ public class AhoCorasickAutomaton {
     }
 
     public void addPattern(String pattern) {
+        addPattern(pattern, ALL_VERSIONS);
+    }
+
+    /**
+     * 添加带版本掩码的模式串，多个数据版本共享同一棵字典树
+     *
+     * @param pattern     模式串
+     * @param versionMask 包含该模式串的版本位集合，重复添加时取并集
+     */
+    public void addPattern(String pattern, long versionMask) {
         if (pattern == null || pattern.isEmpty()) {
             return;
         }
 
-        TrieNode current = root;
-        for (char ch : pattern.toCharArray()) {
+        insert(root, pattern, 0, versionMask);
+    }
+
+    /**
+     * 批量添加模式串：先排序去重，再按排序顺序插入，得到的字典树（包括各节点子表的遍历顺序）只取决于模式串集合
+     * <p>
+     * parallel 为 true 时按首字符分组，各组的子树在 ForkJoinPool 中独立构建后按字符顺序挂到根节点，
+     * 与串行按同样顺序插入的结果完全相同
+     *
+     * @param patterns 模式串，忽略 null 与空串
+     * @param parallel 是否并行构建
+     */
+    public void addPatterns(Collection<String> patterns, boolean parallel) {
+        String[] sorted = patterns.stream()
+                .filter(pattern -> pattern != null && !pattern.isEmpty())
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+        if (!parallel) {
+            for (String pattern : sorted) {
+                insert(root, pattern, 0, ALL_VERSIONS);
+            }
+            return;
+        }
+
+        // 排序后首字符相同的模式串是连续的一段，根节点已有的首字符仍串行插入
+        List<int[]> groups = new ArrayList<>();
+        for (int start = 0; start < sorted.length; ) {
+            char first = sorted[start].charAt(0);
+            int end = start + 1;
+            while (end < sorted.length && sorted[end].charAt(0) == first) {
+                end++;
+            }
+            groups.add(new int[]{start, end});
+            start = end;
+        }
+        TrieNode[] subtrees = groups.parallelStream().map(group -> {
+            if (root.children.containsKey(sorted[group[0]].charAt(0))) {
+                return null;
+            }
+            TrieNode subtree = new TrieNode();
+            for (int i = group[0]; i < group[1]; i++) {
+                insert(subtree, sorted[i], 1, ALL_VERSIONS);
+            }
+            return subtree;
+        }).toArray(TrieNode[]::new);
+
+        for (int g = 0; g < groups.size(); g++) {
+            int[] group = groups.get(g);
+            if (subtrees[g] != null) {
+                root.children.put(sorted[group[0]].charAt(0), subtrees[g]);
+            } else {
+                for (int i = group[0]; i < group[1]; i++) {
+                    insert(root, sorted[i], 0, ALL_VERSIONS);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从 start 节点开始插入 pattern 中 from 之后的字符
+     */
+    private static void insert(TrieNode start, String pattern, int from, long versionMask) {
+        TrieNode current = start;
+        for (int i = from; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
             current.children.putIfAbsent(ch, new TrieNode());
             current = current.children.get(ch);
         }
         current.isEndOfPattern = true;
         current.pattern = pattern;
+        current.versionMask |= versionMask;
     }
 
     public void buildFailurePointers() {
-        Queue<TrieNode> queue = new LinkedList<>();
+        buildFailurePointers(false);
+    }
 
+    /**
+     * 按层构建失败指针：某一层的失败指针只依赖更浅的层，同一层的节点之间互不影响
+     * <p>
+     * parallel 为 true 时每一层内并行计算，层与层之间同步，结果与串行完全相同
+     *
+     * @param parallel 是否在层内并行
+     */
+    public void buildFailurePointers(boolean parallel) {
         // 根节点的所有直接子节点的失败指针指向根
-        for (TrieNode firstLevelNode : root.children.values()) {
-            if (firstLevelNode != null) {
-                firstLevelNode.failurePointer = root;
-                queue.add(firstLevelNode);
-            }
+        List<TrieNode> level = new ArrayList<>(root.children.values());
+        for (TrieNode firstLevelNode : level) {
+            firstLevelNode.failurePointer = root;
         }
 
         // 为其余节点构建失败指针
-        while (!queue.isEmpty()) {
-            TrieNode current = queue.poll();
-
-            for (Map.Entry<Character, TrieNode> entry : current.children.entrySet()) {
-                char ch = entry.getKey();
-                TrieNode child = entry.getValue();
+        while (!level.isEmpty()) {
+            if (parallel && level.size() >= PARALLEL_LEVEL_SIZE) {
+                level.parallelStream().forEach(this::linkChildren);
+            } else {
+                level.forEach(this::linkChildren);
+            }
 
-                // 将子节点加入队列
-                queue.add(child);
+            List<TrieNode> next = new ArrayList<>();
+            for (TrieNode node : level) {
+                next.addAll(node.children.values());
+            }
+            level = next;
+        }
+    }
 
-                // 从当前节点的失败指针开始查找
-                TrieNode failureNode = current.failurePointer;
-                while (failureNode != null && !failureNode.children.containsKey(ch)) {
-                    failureNode = failureNode.failurePointer;
-                }
+    /**
+     * 为 current 的各子节点设置失败指针，要求 current 及更浅节点的失败指针已经就绪
+     */
+    private void linkChildren(TrieNode current) {
+        for (Map.Entry<Character, TrieNode> entry : current.children.entrySet()) {
+            char ch = entry.getKey();
+            TrieNode child = entry.getValue();
 
-                child.failurePointer = (failureNode == null) ? root : failureNode.children.get(ch);
+            // 从当前节点的失败指针开始查找
+            TrieNode failureNode = current.failurePointer;
+            while (failureNode != null && !failureNode.children.containsKey(ch)) {
+                failureNode = failureNode.failurePointer;
             }
+
+            child.failurePointer = (failureNode == null) ? root : failureNode.children.get(ch);
         }
     }
 
@@ -97,7 +206,30 @@ public class AhoCorasickAutomaton {
      * @return 匹配结果列表，包含匹配的词和位置信息
      */
     public List<MatchResult> findAll(String text) {
+        return findAll(text, ALL_VERSIONS);
+    }
+
+    /**
+     * 查找文本中属于指定版本的所有匹配
+     *
+     * @param text        要搜索的文本
+     * @param versionMask 版本位集合，只返回与之有交集的模式串
+     * @return 匹配结果列表，包含匹配的词和位置信息
+     */
+    public List<MatchResult> findAll(String text, long versionMask) {
         List<MatchResult> results = new ArrayList<>();
+        forEachMatch(text, versionMask, (keyword, start, end) -> results.add(new MatchResult(keyword, start, end)));
+        return results;
+    }
+
+    /**
+     * 逐个回调文本中属于指定版本的匹配，不创建 MatchResult，适合批量解析等对分配敏感的场景
+     *
+     * @param text        要搜索的文本
+     * @param versionMask 版本位集合，只回调与之有交集的模式串
+     * @param handler     匹配回调，keyword 为字典树中保存的模式串本身
+     */
+    public void forEachMatch(CharSequence text, long versionMask, MatchHandler handler) {
         TrieNode current = root;
 
         for (int i = 0; i < text.length(); i++) {
@@ -116,18 +248,405 @@ public class AhoCorasickAutomaton {
             // 检查是否到达某个模式的末尾
             TrieNode temp = current;
             while (temp != root) {
-                if (temp.isEndOfPattern) {
-                    results.add(new MatchResult(
-                            temp.pattern,
-                            i - temp.pattern.length() + 1,
-                            i + 1
-                    ));
+                if (temp.isEndOfPattern && (temp.versionMask & versionMask) != 0) {
+                    handler.onMatch(temp.pattern, i - temp.pattern.length() + 1, i + 1);
                 }
                 temp = temp.failurePointer;
             }
         }
+    }
 
-        return results;
+    /**
+     * 创建可续扫的扫描器，适合排好序或成组的批量输入
+     *
+     * @param versionMask 版本位集合，只回调与之有交集的模式串
+     */
+    public ResumableScanner newScanner(long versionMask) {
+        return new ResumableScanner(versionMask);
+    }
+
+    /**
+     * 可续扫的扫描器：记住上一段文本每个位置的自动机状态，以及截至该位置已结束的匹配
+     * <p>
+     * 下一段文本与上一段有公共前缀时，结束在前缀内的匹配直接重放，从前缀末尾的状态继续扫描，
+     * 回调的匹配及顺序与 {@link #forEachMatch} 完全相同。非线程安全，每个线程各用一个
+     */
+    public final class ResumableScanner {
+        private final long versionMask;
+        private char[] text = new char[64];
+        private TrieNode[] states = new TrieNode[64];
+        private int[] matchesUntil = new int[64];
+        private int length;
+
+        private String[] keywords = new String[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int matchCount;
+
+        private ResumableScanner(long versionMask) {
+            this.versionMask = versionMask;
+        }
+
+        /**
+         * @return 与上一段文本的公共前缀长度，即跳过扫描的字符数
+         */
+        public int scan(CharSequence input, MatchHandler handler) {
+            int n = input.length();
+            int prefix = 0;
+            while (prefix < length && prefix < n && text[prefix] == input.charAt(prefix)) {
+                prefix++;
+            }
+
+            matchCount = prefix == 0 ? 0 : matchesUntil[prefix - 1];
+            for (int m = 0; m < matchCount; m++) {
+                handler.onMatch(keywords[m], starts[m], ends[m]);
+            }
+
+            if (n > text.length) {
+                int capacity = Math.max(n, text.length * 2);
+                text = Arrays.copyOf(text, capacity);
+                states = Arrays.copyOf(states, capacity);
+                matchesUntil = Arrays.copyOf(matchesUntil, capacity);
+            }
+            TrieNode current = prefix == 0 ? root : states[prefix - 1];
+            for (int i = prefix; i < n; i++) {
+                char ch = input.charAt(i);
+                text[i] = ch;
+
+                while (current != root && !current.children.containsKey(ch)) {
+                    current = current.failurePointer;
+                }
+                if (current.children.containsKey(ch)) {
+                    current = current.children.get(ch);
+                }
+
+                TrieNode temp = current;
+                while (temp != root) {
+                    if (temp.isEndOfPattern && (temp.versionMask & versionMask) != 0) {
+                        record(temp.pattern, i - temp.pattern.length() + 1, i + 1);
+                        handler.onMatch(temp.pattern, i - temp.pattern.length() + 1, i + 1);
+                    }
+                    temp = temp.failurePointer;
+                }
+                states[i] = current;
+                matchesUntil[i] = matchCount;
+            }
+            length = n;
+            return prefix;
+        }
+
+        private void record(String keyword, int start, int end) {
+            if (matchCount == keywords.length) {
+                keywords = Arrays.copyOf(keywords, matchCount * 2);
+                starts = Arrays.copyOf(starts, matchCount * 2);
+                ends = Arrays.copyOf(ends, matchCount * 2);
+            }
+            keywords[matchCount] = keyword;
+            starts[matchCount] = start;
+            ends[matchCount] = end;
+            matchCount++;
+        }
+    }
+
+    /**
+     * 在 text 的 [from, to) 区间内做近似匹配：模式串与区间内某个子串的编辑距离不超过允许值即命中
+     * <p>
+     * 以 Levenshtein 自动机的状态（按文本位置展开的一行编辑距离）沿字典树深度优先推进，
+     * 某个节点的整行都超过上限时整棵子树剪掉，因此只会走到与区间相近的少量分支。
+     * 允许的编辑数随模式串长度收紧：长度 &lt; 3 不做近似，3~5 最多 1 次，6 及以上最多 maxEdits 次（不超过 2）。
+     * 三个字的名称改一个字常常就是另一个真实地名（如某某镇），这类命中需要调用方结合上下文确认
+     *
+     * @param deadlineNanos 超过该时刻（System.nanoTime）立即停止，返回已找到的结果
+     * @return 每个模式串只保留编辑距离最小的一次命中，distance 大于 0
+     */
+    public List<MatchResult> findFuzzy(String text, int from, int to, int maxEdits,
+                                       long versionMask, long deadlineNanos) {
+        int width = to - from;
+        maxEdits = Math.min(maxEdits, 2);
+        if (width <= 0 || maxEdits <= 0) {
+            return Collections.emptyList();
+        }
+
+        FuzzySearch search = new FuzzySearch(text, from, to, maxEdits, versionMask, deadlineNanos);
+        // 根节点：模式串可以从区间内任意位置开始，起始代价为 0
+        int[] row = new int[width + 1];
+        for (Map.Entry<Character, TrieNode> entry : root.children.entrySet()) {
+            if (!search.visit(entry.getValue(), entry.getKey(), row, 1)) {
+                break;
+            }
+        }
+        return new ArrayList<>(search.hits.values());
+    }
+
+    static int allowedEdits(int patternLength, int maxEdits) {
+        if (patternLength >= 6) {
+            return maxEdits;
+        }
+        return patternLength >= 3 ? Math.min(maxEdits, 1) : 0;
+    }
+
+    private static final class FuzzySearch {
+        private final String text;
+        private final int from;
+        private final int width;
+        private final int maxEdits;
+        private final long versionMask;
+        private final long deadlineNanos;
+        private final Map<String, MatchResult> hits = new LinkedHashMap<>();
+        private int visited;
+
+        FuzzySearch(String text, int from, int to, int maxEdits, long versionMask, long deadlineNanos) {
+            this.text = text;
+            this.from = from;
+            this.width = to - from;
+            this.maxEdits = maxEdits;
+            this.versionMask = versionMask;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return false 表示超出时间预算，调用方应停止遍历
+         */
+        boolean visit(TrieNode node, char ch, int[] prev, int depth) {
+            if ((++visited & 0xFF) == 0 && System.nanoTime() - deadlineNanos > 0) {
+                return false;
+            }
+
+            int[] row = new int[width + 1];
+            row[0] = prev[0] + 1;
+            int min = row[0];
+            for (int j = 1; j <= width; j++) {
+                int cost = text.charAt(from + j - 1) == ch ? 0 : 1;
+                int value = Math.min(prev[j - 1] + cost, Math.min(prev[j] + 1, row[j - 1] + 1));
+                row[j] = value;
+                if (value < min) {
+                    min = value;
+                }
+            }
+            if (min > maxEdits) {
+                return true;
+            }
+
+            if (node.isEndOfPattern && (node.versionMask & versionMask) != 0) {
+                int allowed = allowedEdits(depth, maxEdits);
+                int bestEnd = -1;
+                for (int j = 1; j <= width; j++) {
+                    if (row[j] <= allowed && row[j] > 0 && (bestEnd < 0 || row[j] < row[bestEnd])) {
+                        bestEnd = j;
+                    }
+                }
+                if (bestEnd > 0) {
+                    int end = from + bestEnd;
+                    int start = Math.max(from, end - depth);
+                    MatchResult previous = hits.get(node.pattern);
+                    if (previous == null || row[bestEnd] < previous.getDistance()) {
+                        hits.put(node.pattern, new MatchResult(node.pattern, start, end, row[bestEnd]));
+                    }
+                }
+            }
+
+            for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                if (!visit(entry.getValue(), entry.getKey(), row, depth + 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 为字典树预计算前缀补全列表：每个节点保存其子树中优先级最高的 limit 个值，
+     * 查询时走到前缀节点直接取列表，不需要遍历子树。
+     * 没有模式串且只有一个子节点的节点与子节点列表相同，不单独存储
+     *
+     * @param valuesOf 模式串对应的值（如节点号），返回 null 表示该模式串不参与
+     * @param priority 值的优先级，越小越靠前，需为非负且不超过 int 范围
+     */
+    public PrefixIndex buildPrefixIndex(int limit, Function<String, int[]> valuesOf, IntUnaryOperator priority) {
+        PrefixIndex index = new PrefixIndex(limit);
+        collectTop(root, index, valuesOf, priority);
+        return index;
+    }
+
+    private long[] collectTop(TrieNode node, PrefixIndex index, Function<String, int[]> valuesOf,
+                              IntUnaryOperator priority) {
+        int[] own = node.isEndOfPattern ? valuesOf.apply(node.pattern) : null;
+        if (own == null && node.children.size() == 1) {
+            return collectTop(node.children.values().iterator().next(), index, valuesOf, priority);
+        }
+
+        // 排序键：高 32 位优先级，低 32 位值本身
+        long[] candidates = new long[0];
+        int size = 0;
+        if (own != null) {
+            candidates = new long[own.length];
+            for (int value : own) {
+                candidates[size++] = ((long) priority.applyAsInt(value) << 32) | value;
+            }
+        }
+        for (TrieNode child : node.children.values()) {
+            long[] top = collectTop(child, index, valuesOf, priority);
+            if (top.length == 0) {
+                continue;
+            }
+            if (size + top.length > candidates.length) {
+                candidates = Arrays.copyOf(candidates, size + top.length);
+            }
+            System.arraycopy(top, 0, candidates, size, top.length);
+            size += top.length;
+        }
+
+        Arrays.sort(candidates, 0, size);
+        long[] top = new long[Math.min(size, index.limit)];
+        int count = 0;
+        for (int i = 0; i < size && count < top.length; i++) {
+            if (count == 0 || candidates[i] != top[count - 1]) {
+                top[count++] = candidates[i];
+            }
+        }
+        top = count == top.length ? top : Arrays.copyOf(top, count);
+
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (int) top[i];
+        }
+        index.tops.put(node, values);
+        return top;
+    }
+
+    /**
+     * 查询前缀的补全列表
+     *
+     * @return 按优先级排好序的值，前缀不在字典树中时返回 null；返回的数组不可修改
+     */
+    public int[] lookupPrefix(PrefixIndex index, String prefix) {
+        TrieNode node = walk(prefix);
+        if (node == null) {
+            return null;
+        }
+        int[] values = index.tops.get(node);
+        // 单链节点沿唯一子节点下行，直到遇到存储了列表的节点
+        while (values == null && node.children.size() == 1) {
+            node = node.children.values().iterator().next();
+            values = index.tops.get(node);
+        }
+        return values == null ? new int[0] : values;
+    }
+
+    /**
+     * 遍历前缀节点的整棵子树，收集所有值；只在预计算列表不够用时使用
+     */
+    public void collectPrefix(String prefix, Function<String, int[]> valuesOf, IntConsumer consumer) {
+        TrieNode start = walk(prefix);
+        if (start == null) {
+            return;
+        }
+        Deque<TrieNode> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TrieNode node = stack.pop();
+            if (node.isEndOfPattern) {
+                int[] values = valuesOf.apply(node.pattern);
+                if (values != null) {
+                    for (int value : values) {
+                        consumer.accept(value);
+                    }
+                }
+            }
+            for (TrieNode child : node.children.values()) {
+                stack.push(child);
+            }
+        }
+    }
+
+    private TrieNode walk(String prefix) {
+        TrieNode node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * 前缀补全列表，与字典树节点一一对应；同一个自动机可以为不同的值空间各建一份
+     */
+    public static final class PrefixIndex {
+        private final int limit;
+        private final Map<TrieNode, int[]> tops = new IdentityHashMap<>();
+
+        private PrefixIndex(int limit) {
+            this.limit = limit;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+    }
+
+    void collectPatterns(Consumer<String> consumer) {
+        Queue<TrieNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            TrieNode node = queue.poll();
+            if (node.isEndOfPattern) {
+                consumer.accept(node.pattern);
+            }
+            queue.addAll(node.children.values());
+        }
+    }
+
+    /**
+     * 按 BFS 顺序写出字典树，父节点与失败指针目标都比当前节点更浅，读取时可以一次还原
+     */
+    void writeTo(ParserCodec.Writer writer) throws IOException {
+        List<TrieNode> order = new ArrayList<>();
+        Map<TrieNode, Integer> ids = new IdentityHashMap<>();
+        order.add(root);
+        ids.put(root, 0);
+        for (int i = 0; i < order.size(); i++) {
+            for (TrieNode child : order.get(i).children.values()) {
+                ids.put(child, order.size());
+                order.add(child);
+            }
+        }
+
+        writer.writeVarInt(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            TrieNode parent = order.get(i);
+            for (Map.Entry<Character, TrieNode> entry : parent.children.entrySet()) {
+                TrieNode node = entry.getValue();
+                writer.writeChar(entry.getKey());
+                writer.writeVarInt(i);
+                writer.writeVarInt(node.failurePointer == null ? 0 : ids.get(node.failurePointer));
+                if (node.isEndOfPattern) {
+                    writer.writeString(node.pattern);
+                    writer.writeLong(node.versionMask);
+                } else {
+                    writer.writeString(null);
+                }
+            }
+        }
+    }
+
+    static AhoCorasickAutomaton readFrom(ParserCodec.Reader reader) throws IOException {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
+        TrieNode[] nodes = new TrieNode[reader.readVarInt()];
+        nodes[0] = automaton.root;
+        for (int i = 1; i < nodes.length; i++) {
+            char ch = reader.readChar();
+            TrieNode parent = nodes[reader.readVarInt()];
+            TrieNode node = new TrieNode();
+            parent.children.put(ch, node);
+            node.failurePointer = nodes[reader.readVarInt()];
+            String pattern = reader.readString();
+            if (pattern != null) {
+                node.isEndOfPattern = true;
+                node.pattern = pattern;
+                node.versionMask = reader.readLong();
+            }
+            nodes[i] = node;
+        }
+        return automaton;
     }
 
     private static class TrieNode {
@@ -135,6 +654,7 @@ public class AhoCorasickAutomaton {
         TrieNode failurePointer;
         boolean isEndOfPattern;
         String pattern;
+        long versionMask;
 
         public TrieNode() {
             this.children = new HashMap<>();
@@ -144,17 +664,31 @@ public class AhoCorasickAutomaton {
         }
     }
 
+    /**
+     * 匹配回调，[start, end) 为命中区间
+     */
+    @FunctionalInterface
+    public interface MatchHandler {
+        void onMatch(String keyword, int start, int end);
+    }
+
     @Data
     @ToString
     public static class MatchResult {
         private String keyword;   // 匹配的关键词
         private int start;        // 起始位置
         private int end;         // 结束位置
+        private int distance;    // 编辑距离，精确匹配为 0
 
         public MatchResult(String keyword, int start, int end) {
+            this(keyword, start, end, 0);
+        }
+
+        public MatchResult(String keyword, int start, int end, int distance) {
             this.keyword = keyword;
             this.start = start;
             this.end = end;
+            this.distance = distance;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package org.zk.cpca.core;
+
+import java.io.Serializable;
+
+/**
+ * 按区划节点号计数的聚合表，大小只取决于区划个数，与输入行数无关
+ * <p>
+ * 不同线程或分区各自聚合后用 {@link #merge} 合并。反序列化后需要 {@link #attach} 同一份数据的解析器，
+ * 才能按区划代码查询或汇总下级
+ *
+ * @author zk
+ */
+public class DivisionCounts implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] counts;
+    private final long fingerprint;
+    private long rows;
+    private long unmatched;
+    private long ambiguous;
+    private transient AddressIndex addressIndex;
+
+    DivisionCounts(AddressIndex addressIndex) {
+        this.counts = new long[addressIndex.getNodeCount()];
+        this.fingerprint = addressIndex.getFingerprint();
+        this.addressIndex = addressIndex;
+    }
+
+    void add(int nodeId) {
+        counts[nodeId]++;
+    }
+
+    void recordRow(boolean matched, boolean ambiguousRow) {
+        rows++;
+        if (!matched) {
+            unmatched++;
+        }
+        if (ambiguousRow) {
+            ambiguous++;
+        }
+    }
+
+    boolean belongsTo(AddressIndex index) {
+        return addressIndex == index;
+    }
+
+    /**
+     * 关联解析器的索引，用于反序列化之后
+     */
+    public DivisionCounts attach(AddressParser parser) {
+        AddressIndex index = parser.getAddressIndex();
+        if (index.getNodeCount() != counts.length || index.getFingerprint() != fingerprint) {
+            throw new IllegalArgumentException("Counts were built from a different dataset");
+        }
+        this.addressIndex = index;
+        return this;
+    }
+
+    /**
+     * 把另一张表累加到当前表，两张表必须来自同一份数据：除节点个数外还比较数据指纹，
+     * 不同数据或注册表中不同版本的表即使节点个数碰巧相同也会被拒绝
+     */
+    public DivisionCounts merge(DivisionCounts other) {
+        if (other.counts.length != counts.length || other.fingerprint != fingerprint) {
+            throw new IllegalArgumentException("Counts were built from a different dataset");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        rows += other.rows;
+        unmatched += other.unmatched;
+        ambiguous += other.ambiguous;
+        if (addressIndex == null) {
+            addressIndex = other.addressIndex;
+        }
+        return this;
+    }
+
+    /**
+     * 直接落在该节点上的行数（不含下级）
+     */
+    public long getCount(int nodeId) {
+        return counts[nodeId];
+    }
+
+    /**
+     * 该节点及全部下级的行数之和，下级是一段连续节点号
+     */
+    public long getTotal(int nodeId) {
+        int end = index().subtreeEnd(nodeId);
+        long total = 0;
+        for (int i = nodeId; i < end; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    public long getCount(String code) {
+        int nodeId = index().getNodeId(code);
+        return nodeId < 0 ? 0 : getCount(nodeId);
+    }
+
+    public long getTotal(String code) {
+        int nodeId = index().getNodeId(code);
+        return nodeId < 0 ? 0 : getTotal(nodeId);
+    }
+
+    /**
+     * 依次回调计数不为 0 的节点
+     */
+    public void forEach(NodeCountConsumer consumer) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                consumer.accept(i, counts[i]);
+            }
+        }
+    }
+
+    /**
+     * 聚合过的总行数
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * 没有识别出任何区划的行数
+     */
+    public long getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * 存在多个同分最佳结果的行数
+     */
+    public long getAmbiguous() {
+        return ambiguous;
+    }
+
+    private AddressIndex index() {
+        if (addressIndex == null) {
+            throw new IllegalStateException("DivisionCounts is detached, call attach(parser) first");
+        }
+        return addressIndex;
+    }
+
+    @FunctionalInterface
+    public interface NodeCountConsumer {
+        void accept(int nodeId, long count);
+    }
+}
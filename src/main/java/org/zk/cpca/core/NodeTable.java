@@ -0,0 +1,890 @@
+package org.zk.cpca.core;
+
+import org.zk.cpca.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 行政区划节点表：全部节点按深度优先（先序）顺序编号，节点号即下面各数组的下标。
+ * 一个节点的全部下级正好是 [nodeId + 1, subtreeEnd[nodeId]) 这一段连续编号
+ * <p>
+ * 注册表的多个版本合并成一棵并集树，共用一张表：同一上级下名称与代码都相同的下级是同一个节点，
+ * 每个节点带一个版本位掩码。版本间的差异只体现为多出的节点与不同的掩码，表的大小随变化量增长，不随版本数成倍增长。
+ * 只有一个版本时不保存掩码，全部节点都属于该版本
+ *
+ * @author zk
+ */
+final class NodeTable {
+    /**
+     * 写出 JSON 时各级的键，与 ParseResult 的字段顺序相同
+     */
+    private static final byte[][] NAME_KEYS = jsonKeys("{\"province\":", ",\"city\":", ",\"area\":", ",\"town\":");
+    private static final byte[][] CODE_KEYS = jsonKeys(",\"provinceCode\":", ",\"cityCode\":",
+            ",\"areaCode\":", ",\"townCode\":");
+    private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<String, int[]> reverseIndex;
+
+    private AddressTrace[] nodes;
+    private byte[] levels;
+    private int[] parents;
+    private long[] codes;
+    private int[] keywordIds;
+    /**
+     * 各节点所属版本的位掩码，只有一个版本时为 null
+     */
+    private long[] versions;
+    private final int versionCount;
+    private int[] subtreeEnds;
+    private int[][] levelNodes;
+    private long[] sortedCodes;
+    private int[] codeNodes;
+    private int nodeCount;
+    private byte[] jsonValues;
+    private int[] jsonOffsets;
+    private final PairIndex pairIndex;
+
+    /**
+     * 单个版本
+     *
+     * @param parallel 按省份并行构建，按原顺序合并，节点号与串行构建相同
+     */
+    NodeTable(List<Province> provinces, boolean parallel) {
+        this.reverseIndex = new HashMap<>();
+        this.versionCount = 1;
+        allocate(256);
+        if (parallel) {
+            buildInParallel(provinces);
+        } else {
+            for (Province province : provinces) {
+                addProvince(province);
+            }
+        }
+        trim();
+        buildRangeIndex();
+        buildJsonValues();
+        this.pairIndex = new PairIndex(this);
+    }
+
+    /**
+     * 多个版本合并后的并集树，按先序编号，同一上级下的节点按首次出现的顺序排列
+     */
+    private NodeTable(MergeNode root, int versionCount) {
+        this.reverseIndex = new HashMap<>();
+        this.versionCount = versionCount;
+        allocate(256);
+        this.versions = new long[256];
+        Object[] chain = new Object[4];
+        for (MergeNode province : root.children) {
+            addMerged(province, 0, -1, chain);
+        }
+        trim();
+        this.versions = versionCount > 1 ? Arrays.copyOf(versions, nodeCount) : null;
+        buildRangeIndex();
+        buildJsonValues();
+        this.pairIndex = new PairIndex(this);
+    }
+
+    /**
+     * 从二进制格式还原：按节点号排列的数组、反查表与组合索引按写出时的内容直接读回，不再构建；
+     * 区划对象按上级数组重建，下级列表只含 versionMask 中的节点。JSON 字面量按名称与代码重新编码
+     */
+    private NodeTable(ParserCodec.Reader reader, long versionMask) throws IOException {
+        this.nodeCount = reader.readVarInt();
+        String[] names = new String[nodeCount];
+        String[] codeTexts = new String[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            names[i] = reader.readString();
+            codeTexts[i] = reader.readString();
+        }
+        this.levels = reader.readBytes();
+        this.parents = reader.readInts();
+        this.codes = reader.readLongs();
+        this.keywordIds = reader.readInts();
+        this.subtreeEnds = reader.readInts();
+        if (levels.length != nodeCount || parents.length != nodeCount || subtreeEnds.length != nodeCount) {
+            throw new IllegalArgumentException("Corrupted AddressParser byte form: " + nodeCount + " nodes, "
+                    + levels.length + " levels, " + parents.length + " parents");
+        }
+        this.levelNodes = new int[reader.readVarInt()][];
+        for (int level = 0; level < levelNodes.length; level++) {
+            levelNodes[level] = reader.readInts();
+        }
+        this.codeNodes = reader.readInts();
+        this.sortedCodes = new long[codeNodes.length];
+        for (int i = 0; i < codeNodes.length; i++) {
+            sortedCodes[i] = codes[codeNodes[i]];
+        }
+        this.versionCount = reader.readVarInt();
+        this.versions = versionCount > 1 ? reader.readLongs() : null;
+        this.nodes = rebuildTraces(names, codeTexts, versionMask);
+
+        int keywordCount = reader.readVarInt();
+        this.reverseIndex = new HashMap<>(keywordCount * 4 / 3 + 1);
+        for (int i = 0; i < keywordCount; i++) {
+            int[] ids = reader.readInts();
+            reverseIndex.put(names[ids[0]], ids);
+        }
+        this.pairIndex = PairIndex.readFrom(reader);
+        // JSON 字面量只是名称与代码的另一种编码，按字符串重新编码比随字节一起传输更省
+        buildJsonValues();
+    }
+
+    static NodeTable readFrom(ParserCodec.Reader reader, long versionMask) throws IOException {
+        return new NodeTable(reader, versionMask);
+    }
+
+    /**
+     * 先写各节点的名称与代码（字符串表引用），再写按节点号排列的数组、版本掩码、反查表与组合索引；
+     * 反查表按关键词第一个节点的节点号顺序写出，关键词就是该节点的名称，不再另写
+     */
+    void writeTo(ParserCodec.Writer writer) throws IOException {
+        writer.writeVarInt(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            writer.writeString(name(i));
+            writer.writeString(codeText(i));
+        }
+        writer.writeBytes(levels);
+        writer.writeInts(parents);
+        writer.writeLongs(codes);
+        writer.writeInts(keywordIds);
+        writer.writeInts(subtreeEnds);
+        writer.writeVarInt(levelNodes.length);
+        for (int[] ids : levelNodes) {
+            writer.writeInts(ids);
+        }
+        writer.writeInts(codeNodes);
+        writer.writeVarInt(versionCount);
+        if (versions != null) {
+            writer.writeLongs(versions);
+        }
+
+        writer.writeVarInt(reverseIndex.size());
+        for (int i = 0; i < nodeCount; i++) {
+            if (keywordIds[i] == i) {
+                writer.writeInts(reverseIndex.get(name(i)));
+            }
+        }
+        pairIndex.writeTo(writer);
+    }
+
+    /**
+     * 收集全部名称与代码，供写出字符串表
+     */
+    void collectStrings(Consumer<String> consumer) {
+        for (int i = 0; i < nodeCount; i++) {
+            consumer.accept(name(i));
+            consumer.accept(codeText(i));
+        }
+    }
+
+    /**
+     * 合并多个版本为一张表，同时把 versions 中的每个版本换成规范化后的省份列表：
+     * 下级与上一个版本完全相同（逐个按引用比较）的区划对象直接复用上一个版本的实例，名称与代码字符串各版本共用，
+     * 判断只看节点号与引用，不对整棵子树做 equals/hashCode
+     *
+     * @param versions 各版本的省份列表，下标即版本位
+     */
+    static NodeTable merge(List<List<Province>> versions) {
+        MergeNode root = new MergeNode(null, null);
+        for (int v = 0; v < versions.size(); v++) {
+            long bit = 1L << v;
+            List<Province> canonical = new ArrayList<>(versions.get(v).size());
+            for (Province province : versions.get(v)) {
+                canonical.add(share(root.child(province.getName(), province.getCode(), bit), province, bit));
+            }
+            versions.set(v, canonical);
+        }
+        return new NodeTable(root, versions.size());
+    }
+
+    private static Province share(MergeNode node, Province province, long bit) {
+        List<City> citys = null;
+        if (province.getCitys() != null) {
+            citys = new ArrayList<>(province.getCitys().size());
+            for (City city : province.getCitys()) {
+                citys.add(share(node.child(city.getName(), city.getCode(), bit), city, bit));
+            }
+        }
+        Province previous = (Province) node.latest;
+        if (previous != null && sameElements(previous.getCitys(), citys)) {
+            return previous;
+        }
+        province.setName(node.name);
+        province.setCode(node.code);
+        province.setCitys(citys);
+        return node.keep(province);
+    }
+
+    private static City share(MergeNode node, City city, long bit) {
+        List<Area> areas = null;
+        if (city.getAreas() != null) {
+            areas = new ArrayList<>(city.getAreas().size());
+            for (Area area : city.getAreas()) {
+                areas.add(share(node.child(area.getName(), area.getCode(), bit), area, bit));
+            }
+        }
+        City previous = (City) node.latest;
+        if (previous != null && sameElements(previous.getAreas(), areas)) {
+            return previous;
+        }
+        city.setName(node.name);
+        city.setCode(node.code);
+        city.setAreas(areas);
+        return node.keep(city);
+    }
+
+    private static Area share(MergeNode node, Area area, long bit) {
+        List<Town> towns = null;
+        if (area.getTowns() != null) {
+            towns = new ArrayList<>(area.getTowns().size());
+            for (Town town : area.getTowns()) {
+                towns.add(share(node.child(town.getName(), town.getCode(), bit), town));
+            }
+        }
+        Area previous = (Area) node.latest;
+        if (previous != null && sameElements(previous.getTowns(), towns)) {
+            return previous;
+        }
+        area.setName(node.name);
+        area.setCode(node.code);
+        area.setTowns(towns);
+        return node.keep(area);
+    }
+
+    private static Town share(MergeNode node, Town town) {
+        if (node.latest != null) {
+            return (Town) node.latest;
+        }
+        town.setName(node.name);
+        town.setCode(node.code);
+        return node.keep(town);
+    }
+
+    private static boolean sameElements(List<?> a, List<?> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 合并过程中的并集树节点，只在构建时存在
+     */
+    private static final class MergeNode {
+        private final String name;
+        private final String code;
+        private final List<MergeNode> children = new ArrayList<>();
+        private Map<String, MergeNode> childIndex;
+        // 同一版本同一上级下名称与代码都相同的下一个节点
+        private MergeNode next;
+        private long versions;
+        // 首次出现时的区划对象，路径对象由它们组成
+        private Object first;
+        // 最近一个版本的区划对象
+        private Object latest;
+
+        MergeNode(String name, String code) {
+            this.name = name;
+            this.code = code;
+        }
+
+        /**
+         * 名称与代码相同、且本版本尚未占用的下级，没有时新建
+         */
+        MergeNode child(String name, String code, long bit) {
+            if (childIndex == null) {
+                childIndex = new HashMap<>();
+            }
+            String key = name + '\u0000' + code;
+            MergeNode node = childIndex.get(key);
+            MergeNode last = null;
+            while (node != null && (node.versions & bit) != 0) {
+                last = node;
+                node = node.next;
+            }
+            if (node == null) {
+                node = new MergeNode(name, code);
+                if (last == null) {
+                    childIndex.put(key, node);
+                } else {
+                    last.next = node;
+                }
+                children.add(node);
+            }
+            node.versions |= bit;
+            return node;
+        }
+
+        <T> T keep(T model) {
+            if (first == null) {
+                first = model;
+            }
+            latest = model;
+            return model;
+        }
+    }
+
+    private void addMerged(MergeNode node, int level, int parentId, Object[] chain) {
+        chain[level] = node.first;
+        AddressTrace trace = new AddressTrace((Province) chain[0], level >= 1 ? (City) chain[1] : null,
+                level >= 2 ? (Area) chain[2] : null, level >= 3 ? (Town) chain[3] : null);
+        int nodeId = addNode(node.name, node.code, trace, AddressLevel.values()[level], parentId);
+        if (nodeId == versions.length) {
+            versions = Arrays.copyOf(versions, nodes.length);
+        }
+        versions[nodeId] = node.versions;
+        for (MergeNode child : node.children) {
+            addMerged(child, level + 1, nodeId, chain);
+        }
+    }
+
+    /**
+     * 按上级数组重建区划对象与路径对象，每个节点一个对象，下级列表只收 versionMask 中的节点，没有下级时为 null
+     */
+    private AddressTrace[] rebuildTraces(String[] names, String[] codeTexts, long versionMask) {
+        Object[] models = new Object[nodeCount];
+        AddressTrace[] traces = new AddressTrace[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            int parent = parents[i];
+            AddressTrace above = parent < 0 ? null : traces[parent];
+            switch (levels[i]) {
+                case 0:
+                    Province province = new Province(names[i], codeTexts[i], null);
+                    models[i] = province;
+                    traces[i] = new AddressTrace(province, null, null, null);
+                    break;
+                case 1:
+                    City city = new City(names[i], codeTexts[i], null);
+                    models[i] = city;
+                    traces[i] = new AddressTrace(above.getProvince(), city, null, null);
+                    if (contains(i, versionMask)) {
+                        Province up = (Province) models[parent];
+                        if (up.getCitys() == null) {
+                            up.setCitys(new ArrayList<>());
+                        }
+                        up.getCitys().add(city);
+                    }
+                    break;
+                case 2:
+                    Area area = new Area(names[i], codeTexts[i], null);
+                    models[i] = area;
+                    traces[i] = new AddressTrace(above.getProvince(), above.getCity(), area, null);
+                    if (contains(i, versionMask)) {
+                        City up = (City) models[parent];
+                        if (up.getAreas() == null) {
+                            up.setAreas(new ArrayList<>());
+                        }
+                        up.getAreas().add(area);
+                    }
+                    break;
+                default:
+                    Town town = new Town(names[i], codeTexts[i]);
+                    models[i] = town;
+                    traces[i] = new AddressTrace(above.getProvince(), above.getCity(), above.getArea(), town);
+                    if (contains(i, versionMask)) {
+                        Area up = (Area) models[parent];
+                        if (up.getTowns() == null) {
+                            up.setTowns(new ArrayList<>());
+                        }
+                        up.getTowns().add(town);
+                    }
+                    break;
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * versionMask 中的省份，下级列表为还原时按版本收集的内容
+     */
+    List<Province> provinces(long versionMask) {
+        List<Province> provinces = new ArrayList<>();
+        for (int nodeId : levelNodes[AddressLevel.PROVINCE.ordinal()]) {
+            if (contains(nodeId, versionMask)) {
+                provinces.add(nodes[nodeId].getProvince());
+            }
+        }
+        return provinces;
+    }
+
+    private void allocate(int capacity) {
+        this.nodes = new AddressTrace[capacity];
+        this.levels = new byte[capacity];
+        this.parents = new int[capacity];
+        this.codes = new long[capacity];
+        this.keywordIds = new int[capacity];
+    }
+
+    private void trim() {
+        this.nodes = Arrays.copyOf(nodes, nodeCount);
+        this.levels = Arrays.copyOf(levels, nodeCount);
+        this.parents = Arrays.copyOf(parents, nodeCount);
+        this.codes = Arrays.copyOf(codes, nodeCount);
+        this.keywordIds = Arrays.copyOf(keywordIds, nodeCount);
+    }
+
+    private void addProvince(Province province) {
+        int provinceId = addNode(province.getName(), province.getCode(),
+                new AddressTrace(province, null, null, null), AddressLevel.PROVINCE, -1);
+
+        for (City city : safe(province.getCitys())) {
+            int cityId = addNode(city.getName(), city.getCode(),
+                    new AddressTrace(province, city, null, null), AddressLevel.CITY, provinceId);
+
+            for (Area area : safe(city.getAreas())) {
+                int areaId = addNode(area.getName(), area.getCode(),
+                        new AddressTrace(province, city, area, null), AddressLevel.AREA, cityId);
+
+                for (Town town : safe(area.getTowns())) {
+                    addNode(town.getName(), town.getCode(),
+                            new AddressTrace(province, city, area, town), AddressLevel.TOWN, areaId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 各省份在 ForkJoinPool 中各自按先序编号，再按省份顺序整体平移后合并，结果与串行构建相同
+     */
+    private void buildInParallel(List<Province> provinces) {
+        List<ProvinceNodes> parts = provinces.parallelStream()
+                .map(ProvinceNodes::new)
+                .collect(Collectors.toList());
+
+        int total = parts.stream().mapToInt(part -> part.size).sum();
+        allocate(total);
+        for (ProvinceNodes part : parts) {
+            int offset = nodeCount;
+            System.arraycopy(part.traces, 0, nodes, offset, part.size);
+            System.arraycopy(part.levels, 0, levels, offset, part.size);
+            System.arraycopy(part.codes, 0, codes, offset, part.size);
+            for (int i = 0; i < part.size; i++) {
+                parents[offset + i] = part.parents[i] < 0 ? -1 : offset + part.parents[i];
+                keywordIds[offset + i] = -1;
+
+                String name = part.names[i];
+                if (name == null) {
+                    continue;
+                }
+                // 名称在本省第一次出现时合并本省的全部节点号，保持与串行相同的插入顺序
+                int[] local = part.reverseIndex.get(name);
+                if (local[0] == i) {
+                    int[] existing = reverseIndex.get(name);
+                    int base = existing == null ? 0 : existing.length;
+                    int[] merged = existing == null ? new int[local.length] : Arrays.copyOf(existing, base + local.length);
+                    for (int j = 0; j < local.length; j++) {
+                        merged[base + j] = offset + local[j];
+                    }
+                    reverseIndex.put(name, merged);
+                }
+                keywordIds[offset + i] = reverseIndex.get(name)[0];
+            }
+            nodeCount += part.size;
+        }
+    }
+
+    /**
+     * 单个省份的先序节点，节点号从 0 开始
+     */
+    private static final class ProvinceNodes {
+        private AddressTrace[] traces = new AddressTrace[64];
+        private byte[] levels = new byte[64];
+        private int[] parents = new int[64];
+        private long[] codes = new long[64];
+        private String[] names = new String[64];
+        private final Map<String, int[]> reverseIndex = new HashMap<>();
+        private int size;
+
+        ProvinceNodes(Province province) {
+            int provinceId = add(province.getName(), province.getCode(),
+                    new AddressTrace(province, null, null, null), AddressLevel.PROVINCE, -1);
+            for (City city : safe(province.getCitys())) {
+                int cityId = add(city.getName(), city.getCode(),
+                        new AddressTrace(province, city, null, null), AddressLevel.CITY, provinceId);
+                for (Area area : safe(city.getAreas())) {
+                    int areaId = add(area.getName(), area.getCode(),
+                            new AddressTrace(province, city, area, null), AddressLevel.AREA, cityId);
+                    for (Town town : safe(area.getTowns())) {
+                        add(town.getName(), town.getCode(),
+                                new AddressTrace(province, city, area, town), AddressLevel.TOWN, areaId);
+                    }
+                }
+            }
+        }
+
+        private int add(String name, String code, AddressTrace trace, AddressLevel level, int parentId) {
+            if (size == traces.length) {
+                traces = Arrays.copyOf(traces, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+                codes = Arrays.copyOf(codes, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            int nodeId = size++;
+            traces[nodeId] = trace;
+            levels[nodeId] = (byte) level.ordinal();
+            parents[nodeId] = parentId;
+            codes[nodeId] = parseCode(code);
+            names[nodeId] = name;
+            if (name != null) {
+                int[] ids = reverseIndex.get(name);
+                if (ids == null) {
+                    reverseIndex.put(name, new int[]{nodeId});
+                } else {
+                    ids = Arrays.copyOf(ids, ids.length + 1);
+                    ids[ids.length - 1] = nodeId;
+                    reverseIndex.put(name, ids);
+                }
+            }
+            return nodeId;
+        }
+    }
+
+    private int addNode(String name, String code, AddressTrace trace, AddressLevel level, int parentId) {
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodeCount * 2);
+            levels = Arrays.copyOf(levels, nodeCount * 2);
+            parents = Arrays.copyOf(parents, nodeCount * 2);
+            codes = Arrays.copyOf(codes, nodeCount * 2);
+            keywordIds = Arrays.copyOf(keywordIds, nodeCount * 2);
+        }
+        int nodeId = nodeCount++;
+        nodes[nodeId] = trace;
+        levels[nodeId] = (byte) level.ordinal();
+        parents[nodeId] = parentId;
+        codes[nodeId] = parseCode(code);
+        keywordIds[nodeId] = -1;
+
+        if (name != null) {
+            int[] ids = reverseIndex.get(name);
+            if (ids == null) {
+                ids = new int[]{nodeId};
+            } else {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = nodeId;
+            }
+            reverseIndex.put(name, ids);
+            keywordIds[nodeId] = ids[0];
+        }
+        return nodeId;
+    }
+
+    /**
+     * 子树区间、按层级分组的节点号与代码反查表
+     */
+    private void buildRangeIndex() {
+        // 先序编号下子节点都比父节点大，倒序一遍即可把子树末尾汇总到父节点
+        subtreeEnds = new int[nodeCount];
+        for (int i = nodeCount - 1; i >= 0; i--) {
+            subtreeEnds[i] = Math.max(subtreeEnds[i], i + 1);
+            int parent = parents[i];
+            if (parent >= 0 && subtreeEnds[i] > subtreeEnds[parent]) {
+                subtreeEnds[parent] = subtreeEnds[i];
+            }
+        }
+
+        AddressLevel[] allLevels = AddressLevel.values();
+        int[] sizes = new int[allLevels.length];
+        for (int i = 0; i < nodeCount; i++) {
+            sizes[levels[i]]++;
+        }
+        levelNodes = new int[allLevels.length][];
+        for (int level = 0; level < allLevels.length; level++) {
+            levelNodes[level] = new int[sizes[level]];
+            sizes[level] = 0;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            levelNodes[levels[i]][sizes[levels[i]]++] = i;
+        }
+
+        // 各版本中同一代码可能对应不同节点，按代码稳定排序，同代码的节点按节点号排列
+        codeNodes = IntStream.range(0, nodeCount)
+                .filter(i -> codes[i] != 0L)
+                .boxed()
+                .sorted(Comparator.comparingLong(i -> codes[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        sortedCodes = new long[codeNodes.length];
+        for (int i = 0; i < codeNodes.length; i++) {
+            sortedCodes[i] = codes[codeNodes[i]];
+        }
+    }
+
+    /**
+     * 区划代码转为数值，不是纯数字时记为 0
+     */
+    static long parseCode(String code) {
+        if (code == null || code.isEmpty() || code.length() > 18) {
+            return 0L;
+        }
+        long value = 0L;
+        for (int i = 0; i < code.length(); i++) {
+            char ch = code.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return 0L;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static <T> List<T> safe(List<T> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    int versionCount() {
+        return versionCount;
+    }
+
+    /**
+     * 节点是否属于 versionMask 中的某个版本
+     */
+    boolean contains(int nodeId, long versionMask) {
+        return versions == null || (versions[nodeId] & versionMask) != 0;
+    }
+
+    /**
+     * 全部版本的关键词，即反查表的键
+     */
+    Set<String> keywords() {
+        return reverseIndex.keySet();
+    }
+
+    /**
+     * 关键词在哪些版本中出现：各同名节点版本掩码的并
+     */
+    long keywordVersions(String keyword) {
+        int[] ids = reverseIndex.get(keyword);
+        if (ids == null) {
+            return 0L;
+        }
+        if (versions == null) {
+            return AhoCorasickAutomaton.ALL_VERSIONS;
+        }
+        long mask = 0L;
+        for (int id : ids) {
+            mask |= versions[id];
+        }
+        return mask;
+    }
+
+    /**
+     * 关键词在 versionMask 中的节点号；同名节点都属于该版本时直接返回共享数组，
+     * 只有版本间有差异的关键词才复制出子集，没有节点时返回 null
+     */
+    int[] nodeIds(String keyword, long versionMask) {
+        int[] ids = reverseIndex.get(keyword);
+        if (ids == null || versions == null) {
+            return ids;
+        }
+        int count = 0;
+        for (int id : ids) {
+            if ((versions[id] & versionMask) != 0) {
+                count++;
+            }
+        }
+        if (count == ids.length) {
+            return ids;
+        }
+        if (count == 0) {
+            return null;
+        }
+        int[] selected = new int[count];
+        count = 0;
+        for (int id : ids) {
+            if ((versions[id] & versionMask) != 0) {
+                selected[count++] = id;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 按区划代码查 versionMask 中的节点号，找不到时返回 -1
+     */
+    int nodeId(long code, long versionMask) {
+        if (code == 0L) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(sortedCodes, code);
+        if (index < 0) {
+            return -1;
+        }
+        while (index > 0 && sortedCodes[index - 1] == code) {
+            index--;
+        }
+        for (; index < sortedCodes.length && sortedCodes[index] == code; index++) {
+            if (contains(codeNodes[index], versionMask)) {
+                return codeNodes[index];
+            }
+        }
+        return -1;
+    }
+
+    AddressTrace trace(int nodeId) {
+        return nodes[nodeId];
+    }
+
+    int level(int nodeId) {
+        return levels[nodeId];
+    }
+
+    int parent(int nodeId) {
+        return parents[nodeId];
+    }
+
+    long code(int nodeId) {
+        return codes[nodeId];
+    }
+
+    int keywordId(int nodeId) {
+        return keywordIds[nodeId];
+    }
+
+    int subtreeEnd(int nodeId) {
+        return subtreeEnds[nodeId];
+    }
+
+    /**
+     * 指定层级的全部节点号，升序
+     */
+    int[] levelNodes(int level) {
+        return levelNodes[level];
+    }
+
+    int[] pairNodes(int keywordA, int keywordB, long versionMask) {
+        return pairIndex.lookup(keywordA, keywordB, versionMask);
+    }
+
+    String name(int nodeId) {
+        AddressTrace trace = nodes[nodeId];
+        switch (levels[nodeId]) {
+            case 0:
+                return trace.getProvince().getName();
+            case 1:
+                return trace.getCity().getName();
+            case 2:
+                return trace.getArea().getName();
+            default:
+                return trace.getTown().getName();
+        }
+    }
+
+    /**
+     * 节点自身的原始代码文本
+     */
+    private String codeText(int nodeId) {
+        AddressTrace trace = nodes[nodeId];
+        switch (levels[nodeId]) {
+            case 0:
+                return trace.getProvince().getCode();
+            case 1:
+                return trace.getCity().getCode();
+            case 2:
+                return trace.getArea().getCode();
+            default:
+                return trace.getTown().getCode();
+        }
+    }
+
+    private static byte[][] jsonKeys(String... keys) {
+        byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            bytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * 构建时把每个节点自身的名称与代码编码为 UTF-8 JSON 字符串字面量，连续存放在一个字节数组里，
+     * 节点 i 的名称为 [jsonOffsets[2i], jsonOffsets[2i+1])，代码为 [jsonOffsets[2i+1], jsonOffsets[2i+2])
+     * <p>
+     * 只按层级存本级的值，不为每个节点存整条链，写出时沿上级拼接
+     */
+    private void buildJsonValues() {
+        int[] offsets = new int[2 * nodeCount + 1];
+        byte[] values = new byte[Math.max(64, nodeCount * 32)];
+        int length = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            for (int field = 0; field < 2; field++) {
+                byte[] value = jsonString(field == 0 ? name(i) : codeText(i));
+                if (length + value.length > values.length) {
+                    values = Arrays.copyOf(values, Math.max(values.length * 2, length + value.length));
+                }
+                System.arraycopy(value, 0, values, length, value.length);
+                length += value.length;
+                offsets[2 * i + field + 1] = length;
+            }
+        }
+        this.jsonValues = Arrays.copyOf(values, length);
+        this.jsonOffsets = offsets;
+    }
+
+    /**
+     * 节点所在完整链的 UTF-8 JSON 对象，字段与 ParseResult 相同，另带各级代码，如
+     * {"province":"湖北省","city":"黄石市","area":"下陆区","town":null,"provinceCode":"420000000",...}
+     * <p>
+     * 键是常量，各级的值取构建时编码好的字节，只做拷贝，不编码也不加锁
+     */
+    void writeJson(int nodeId, OutputStream out) throws IOException {
+        int[] chain = {-1, -1, -1, -1};
+        for (int id = nodeId; id >= 0; id = parents[id]) {
+            chain[levels[id]] = id;
+        }
+        for (int level = 0; level < chain.length; level++) {
+            out.write(NAME_KEYS[level]);
+            writeValue(chain[level], 0, out);
+        }
+        for (int level = 0; level < chain.length; level++) {
+            out.write(CODE_KEYS[level]);
+            writeValue(chain[level], 1, out);
+        }
+        out.write('}');
+    }
+
+    private void writeValue(int nodeId, int field, OutputStream out) throws IOException {
+        if (nodeId < 0) {
+            out.write(JSON_NULL);
+            return;
+        }
+        int start = jsonOffsets[2 * nodeId + field];
+        out.write(jsonValues, start, jsonOffsets[2 * nodeId + field + 1] - start);
+    }
+
+    private static byte[] jsonString(String value) {
+        if (value == null) {
+            return JSON_NULL;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                sb.append(String.format("\\u%04x", (int) ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,373 @@
+package org.zk.cpca.core;
+
+import org.zk.cpca.model.AddressTrace;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 两个关键词的消歧索引：(关键词编号, 关键词编号) -> 两个名称构成上下级关系时 parse 应返回的节点号
+ * <p>
+ * 只输入了两个关键词时，候选要么是同时包含两者的链（本索引收录的节点），要么只包含其中一个。
+ * 构建时只收录能直接给出结果的组合：同时包含两者的最佳节点是完整链，且分数严格高于任一关键词单独命中能得到的最高分，
+ * 此时排序结果与完整流程相同；其余组合不收录，查询时退回完整流程
+ *
+ * @author zk
+ */
+final class PairIndex {
+    private static final long EMPTY = -1L;
+
+    private final long[] keys;
+    /**
+     * 非负时为唯一结果的节点号，负数 -(offset + 1) 指向 pool 中的 [个数, 节点号...]
+     */
+    private final int[] values;
+    /**
+     * 各槽位适用的版本位掩码，只有一个版本时为 null；同一组合在不同版本结果不同时占多个槽位
+     */
+    private final long[] versions;
+    private final int[] pool;
+    private final int mask;
+
+    /**
+     * 多个版本时逐个版本只用本版本的节点构建，结果相同的组合合并为一条并把版本位掩码取并，
+     * 表的大小随版本间的差异增长
+     */
+    PairIndex(NodeTable table) {
+        List<Entry> entries = new ArrayList<>();
+        if (table.versionCount() <= 1) {
+            collect(table, AhoCorasickAutomaton.ALL_VERSIONS, entries::add);
+        } else {
+            Map<Long, List<Entry>> byKey = new HashMap<>();
+            for (int v = 0; v < table.versionCount(); v++) {
+                long bit = 1L << v;
+                collect(table, bit, entry -> {
+                    List<Entry> sameKey = byKey.computeIfAbsent(entry.key, k -> new ArrayList<>(1));
+                    for (Entry existing : sameKey) {
+                        if (Arrays.equals(existing.winners, entry.winners)) {
+                            existing.versions |= bit;
+                            return;
+                        }
+                    }
+                    sameKey.add(entry);
+                    entries.add(entry);
+                });
+            }
+        }
+
+        this.mask = tableSize(entries.size()) - 1;
+        this.keys = new long[mask + 1];
+        Arrays.fill(keys, EMPTY);
+        this.values = new int[mask + 1];
+        this.versions = table.versionCount() <= 1 ? null : new long[mask + 1];
+        int[] pool = new int[16];
+        int poolSize = 0;
+        for (Entry entry : entries) {
+            int slot = freeSlot(keys, mask, entry.key);
+            keys[slot] = entry.key;
+            if (versions != null) {
+                versions[slot] = entry.versions;
+            }
+            if (entry.winners.length == 1) {
+                values[slot] = entry.winners[0];
+            } else {
+                if (poolSize + entry.winners.length + 1 > pool.length) {
+                    pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + entry.winners.length + 1));
+                }
+                values[slot] = -(poolSize + 1);
+                pool[poolSize++] = entry.winners.length;
+                for (int winner : entry.winners) {
+                    pool[poolSize++] = winner;
+                }
+            }
+        }
+        this.pool = Arrays.copyOf(pool, poolSize);
+    }
+
+    /**
+     * 只用 versionMask 中的节点找出能直接给出结果的组合
+     */
+    private static void collect(NodeTable table, long versionMask, Consumer<Entry> sink) {
+        int nodeCount = table.nodeCount();
+        int[] chain = new int[4];
+
+        // 每个关键词单独命中时，完整链能得到的最高分
+        int[] singleScores = new int[nodeCount];
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            if (table.level(nodeId) < 2 || table.keywordId(nodeId) < 0 || !table.contains(nodeId, versionMask)) {
+                continue;
+            }
+            fillChain(table, nodeId, chain);
+            int keyword = table.keywordId(nodeId);
+            int score = score(table, chain, keyword, keyword);
+            singleScores[keyword] = Math.max(singleScores[keyword], score);
+        }
+
+        // 临时表：组合 -> 排名最前的一批节点（以链表串起）
+        int capacity = tableSize(nodeCount * 3);
+        long[] tmpKeys = new long[capacity];
+        Arrays.fill(tmpKeys, EMPTY);
+        int[] tmpRanks = new int[capacity];
+        int[] tmpHeads = new int[capacity];
+        int[] itemNodes = new int[nodeCount * 3];
+        int[] itemNext = new int[nodeCount * 3];
+        int items = 0;
+
+        long[] seen = new long[3];
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            int keyword = table.keywordId(nodeId);
+            if (keyword < 0 || !table.contains(nodeId, versionMask)) {
+                continue;
+            }
+            fillChain(table, nodeId, chain);
+            int seenCount = 0;
+            for (int level = 0; level < table.level(nodeId); level++) {
+                int other = chain[level] < 0 ? -1 : table.keywordId(chain[level]);
+                if (other < 0 || other == keyword) {
+                    continue;
+                }
+                long key = key(keyword, other);
+                if (contains(seen, seenCount, key)) {
+                    continue;
+                }
+                seen[seenCount++] = key;
+
+                boolean complete = table.level(nodeId) >= 2;
+                int rank = (complete ? 1 << 16 : 0) | score(table, chain, keyword, other);
+                int slot = slot(tmpKeys, capacity - 1, key);
+                if (tmpKeys[slot] == EMPTY) {
+                    tmpKeys[slot] = key;
+                    tmpRanks[slot] = rank;
+                    tmpHeads[slot] = -1;
+                } else if (rank < tmpRanks[slot]) {
+                    continue;
+                } else if (rank > tmpRanks[slot]) {
+                    tmpRanks[slot] = rank;
+                    tmpHeads[slot] = -1;
+                }
+                itemNodes[items] = nodeId;
+                itemNext[items] = tmpHeads[slot];
+                tmpHeads[slot] = items++;
+            }
+        }
+
+        // 只保留能直接给出结果的组合，多个结果按名称排序并去掉名称完全相同的
+        Comparator<Integer> byNames = (a, b) -> compareNames(table.trace(a), table.trace(b));
+        for (int i = 0; i < capacity; i++) {
+            long key = tmpKeys[i];
+            if (key == EMPTY || (tmpRanks[i] >> 16) == 0) {
+                continue;
+            }
+            int score = tmpRanks[i] & 0xFFFF;
+            if (score <= singleScores[(int) (key >>> 32)] || score <= singleScores[(int) key]) {
+                continue;
+            }
+
+            List<Integer> winners = new ArrayList<>();
+            for (int item = tmpHeads[i]; item >= 0; item = itemNext[item]) {
+                winners.add(itemNodes[item]);
+            }
+            winners.sort(byNames);
+            for (int w = winners.size() - 1; w > 0; w--) {
+                if (byNames.compare(winners.get(w), winners.get(w - 1)) == 0) {
+                    winners.remove(w);
+                }
+            }
+            sink.accept(new Entry(key, winners.stream().mapToInt(Integer::intValue).toArray(), versionMask));
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final int[] winners;
+        private long versions;
+
+        Entry(long key, int[] winners, long versions) {
+            this.key = key;
+            this.winners = winners;
+            this.versions = versions;
+        }
+    }
+
+    private PairIndex(long[] keys, int[] values, long[] versions, int[] pool) {
+        this.keys = keys;
+        this.values = values;
+        this.versions = versions;
+        this.pool = pool;
+        this.mask = keys.length - 1;
+    }
+
+    /**
+     * 只写出已占用的槽位与结果池；读回时按原表长重新放入，查询结果与原表相同
+     */
+    void writeTo(ParserCodec.Writer writer) throws IOException {
+        writer.writeVarInt(keys.length);
+        writer.writeVarInt(size());
+        writer.writeVarInt(versions == null ? 0 : 1);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                writer.writeVarInt((int) (keys[slot] >>> 32));
+                writer.writeVarInt((int) keys[slot]);
+                writer.writeVarInt(values[slot]);
+                if (versions != null) {
+                    writer.writeLong(versions[slot]);
+                }
+            }
+        }
+        writer.writeInts(pool);
+    }
+
+    static PairIndex readFrom(ParserCodec.Reader reader) throws IOException {
+        long[] keys = new long[reader.readVarInt()];
+        Arrays.fill(keys, EMPTY);
+        int[] values = new int[keys.length];
+        int entries = reader.readVarInt();
+        long[] versions = reader.readVarInt() == 0 ? null : new long[keys.length];
+        for (int i = 0; i < entries; i++) {
+            long key = key(reader.readVarInt(), reader.readVarInt());
+            int slot = freeSlot(keys, keys.length - 1, key);
+            keys[slot] = key;
+            values[slot] = reader.readVarInt();
+            if (versions != null) {
+                versions[slot] = reader.readLong();
+            }
+        }
+        return new PairIndex(keys, values, versions, reader.readInts());
+    }
+
+    /**
+     * 两个关键词在 versionMask 中对应的结果节点号（已按名称排序），组合未收录时返回 null
+     */
+    int[] lookup(int keywordA, int keywordB, long versionMask) {
+        long key = key(keywordA, keywordB);
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && (keys[slot] != key || (versions != null && (versions[slot] & versionMask) == 0))) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            return null;
+        }
+        int value = values[slot];
+        if (value >= 0) {
+            return new int[]{value};
+        }
+        int offset = -value - 1;
+        return Arrays.copyOfRange(pool, offset + 1, offset + 1 + pool[offset]);
+    }
+
+    int size() {
+        int size = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 与 AddressParser 的打分一致：链上名称属于这两个关键词的层级各得 4/3/2/1 分
+     */
+    private static int score(NodeTable table, int[] chain, int keywordA, int keywordB) {
+        int score = 0;
+        for (int level = 0; level < chain.length; level++) {
+            if (chain[level] < 0) {
+                continue;
+            }
+            int keyword = table.keywordId(chain[level]);
+            if (keyword == keywordA || keyword == keywordB) {
+                score += 4 - level;
+            }
+        }
+        return score;
+    }
+
+    private static void fillChain(NodeTable table, int nodeId, int[] chain) {
+        Arrays.fill(chain, -1);
+        for (int id = nodeId; id >= 0; id = table.parent(id)) {
+            chain[table.level(id)] = id;
+        }
+    }
+
+    /**
+     * 与 AddressParser.RESULT_ORDER 一致：逐层比较名称，缺失的层级排在后面
+     */
+    private static int compareNames(AddressTrace a, AddressTrace b) {
+        int cmp = compareName(a.getProvince() == null ? null : a.getProvince().getName(),
+                b.getProvince() == null ? null : b.getProvince().getName());
+        if (cmp == 0) {
+            cmp = compareName(a.getCity() == null ? null : a.getCity().getName(),
+                    b.getCity() == null ? null : b.getCity().getName());
+        }
+        if (cmp == 0) {
+            cmp = compareName(a.getArea() == null ? null : a.getArea().getName(),
+                    b.getArea() == null ? null : b.getArea().getName());
+        }
+        if (cmp == 0) {
+            cmp = compareName(a.getTown() == null ? null : a.getTown().getName(),
+                    b.getTown() == null ? null : b.getTown().getName());
+        }
+        return cmp;
+    }
+
+    private static int compareName(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean contains(long[] keys, int size, long key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 组合与顺序无关，小的编号放在高位
+     */
+    private static long key(int keywordA, int keywordB) {
+        int low = Math.min(keywordA, keywordB);
+        int high = Math.max(keywordA, keywordB);
+        return ((long) low << 32) | high;
+    }
+
+    private static int slot(long[] keys, int mask, long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 第一个空槽位，同一组合的多个版本各占一个槽位
+     */
+    private static int freeSlot(long[] keys, int mask, long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 不低于 2 倍元素数的 2 的幂，保证开放寻址表有空位
+     */
+    private static int tableSize(int elements) {
+        int size = 2;
+        while (size < elements * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
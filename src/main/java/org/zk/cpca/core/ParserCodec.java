@@ -0,0 +1,205 @@
+package org.zk.cpca.core;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 解析器的紧凑二进制格式：字符串表 + 节点表（各节点的名称与代码、基本类型数组、版本掩码与组合索引）+ 已建好失败指针的字典树
+ * 反序列化只需按序还原对象与数组，不再做 JSON 绑定、数据校验、索引构建与失败指针计算；
+ * 注册表中的解析器写出的是各版本共用的整张节点表，还原后仍按自己的版本位掩码过滤
+ *
+ * @author zk
+ */
+final class ParserCodec {
+    private static final int MAGIC = 0x43504341;
+    private static final int FORMAT_VERSION = 5;
+
+    private ParserCodec() {
+    }
+
+    static byte[] encode(AddressIndex index, AhoCorasickAutomaton automaton, long versionMask,
+                         ParserOptions options) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 20);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(buffer))) {
+            Writer writer = new Writer(out);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(versionMask);
+            out.writeInt(options.getFuzzyMaxEdits());
+            out.writeLong(options.getFuzzyBudgetMicros());
+            out.writeBoolean(options.isPinyin());
+
+            // 先收集字符串表，节点表与字典树只写引用
+            index.table().collectStrings(writer::collect);
+            automaton.collectPatterns(writer::collect);
+            writer.writeStringTable();
+
+            index.writeTo(writer);
+            automaton.writeTo(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode AddressParser", e);
+        }
+        return buffer.toByteArray();
+    }
+
+    static AddressParser decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not an AddressParser byte form");
+            }
+            int format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported AddressParser format: " + format);
+            }
+            long versionMask = in.readLong();
+            ParserOptions options = ParserOptions.builder()
+                    .fuzzyMaxEdits(in.readInt())
+                    .fuzzyBudgetMicros(in.readLong())
+                    .pinyin(in.readBoolean())
+                    .build();
+            Reader reader = new Reader(in);
+            reader.readStringTable();
+
+            AddressIndex index = AddressIndex.readFrom(reader, versionMask);
+            AhoCorasickAutomaton automaton = AhoCorasickAutomaton.readFrom(reader);
+            return new AddressParser(index, automaton, versionMask, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode AddressParser", e);
+        }
+    }
+
+    static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void collect(String value) {
+            if (value != null && !refs.containsKey(value)) {
+                refs.put(value, table.size());
+                table.add(value);
+            }
+        }
+
+        void writeStringTable() throws IOException {
+            writeVarInt(table.size());
+            for (String value : table) {
+                out.writeUTF(value);
+            }
+        }
+
+        /**
+         * 0 表示 null，其余为字符串表下标 + 1
+         */
+        void writeString(String value) throws IOException {
+            writeVarInt(value == null ? 0 : refs.get(value) + 1);
+        }
+
+        void writeChar(char ch) throws IOException {
+            out.writeChar(ch);
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        void writeBytes(byte[] values) throws IOException {
+            writeVarInt(values.length);
+            out.write(values);
+        }
+
+        /**
+         * 长度 + 逐个变长整数，负数占 5 个字节
+         */
+        void writeInts(int[] values) throws IOException {
+            writeVarInt(values.length);
+            for (int value : values) {
+                writeVarInt(value);
+            }
+        }
+
+        void writeLongs(long[] values) throws IOException {
+            writeVarInt(values.length);
+            for (long value : values) {
+                out.writeLong(value);
+            }
+        }
+    }
+
+    static final class Reader {
+        private final DataInputStream in;
+        private String[] table;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        void readStringTable() throws IOException {
+            table = new String[readVarInt()];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = in.readUTF();
+            }
+        }
+
+        String readString() throws IOException {
+            int ref = readVarInt();
+            return ref == 0 ? null : table[ref - 1];
+        }
+
+        char readChar() throws IOException {
+            return in.readChar();
+        }
+
+        long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        byte[] readBytes() throws IOException {
+            byte[] values = new byte[readVarInt()];
+            in.readFully(values);
+            return values;
+        }
+
+        int[] readInts() throws IOException {
+            int[] values = new int[readVarInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readVarInt();
+            }
+            return values;
+        }
+
+        long[] readLongs() throws IOException {
+            long[] values = new long[readVarInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readLong();
+            }
+            return values;
+        }
+    }
+}
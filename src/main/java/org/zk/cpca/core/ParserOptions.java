@@ -0,0 +1,60 @@
+package org.zk.cpca.core;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.zk.cpca.model.AddressLevel;
+
+import java.util.Set;
+
+/**
+ * 解析器构建选项
+ *
+ * @author zk
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ParserOptions {
+    /**
+     * 索引到的最低层级，低于该层级的数据在反序列化时直接跳过
+     * 只需要省市区时设为 AREA，可省去绝大部分关键词与字典树节点
+     */
+    @Builder.Default
+    private AddressLevel maxLevel = AddressLevel.TOWN;
+
+    /**
+     * 只索引这些省份（全称或简称），为空时索引全部省份
+     * 用于按地区分片部署，每个节点只持有自己负责的省份
+     */
+    private Set<String> provinces;
+
+    /**
+     * 近似匹配允许的最大编辑距离，0 表示关闭，最大为 2
+     * 开启后只对精确匹配没有覆盖到的片段做近似匹配，命中按编辑距离扣分
+     */
+    private int fuzzyMaxEdits;
+
+    /**
+     * 单次解析中近似匹配的时间预算（微秒），超出后放弃剩余片段
+     */
+    @Builder.Default
+    private long fuzzyBudgetMicros = 2_000;
+
+    /**
+     * 是否构建拼音索引，开启后支持“Hubei Huangshi Xialu”“hbhs”这类罗马化输入
+     */
+    private boolean pinyin;
+
+    /**
+     * 是否多核并行构建：按省份并行绑定与建索引、按首字符并行建字典树、按层并行建失败指针
+     * 构建结果与串行完全相同；只有一个核时拆分与合并是纯开销，会比串行略慢
+     */
+    private boolean parallelBuild;
+
+    public static ParserOptions defaults() {
+        return new ParserOptions();
+    }
+}
@@ -0,0 +1,252 @@
+package org.zk.cpca.core;
+
+import org.zk.cpca.model.AddressLevel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 拼音索引：把区划名转成小写拼音（全拼、去掉“省/市/区”等后缀的核心名、核心名首字母），
+ * 建成第二个 AC 自动机，命中后映射回同一批节点号，罗马化输入与中文输入走同样的匹配流程
+ * <p>
+ * 首字母只收录省、市、区县三级：街道数量是区县的十几倍，两三个字母的缩写几乎都会撞上一批无关街道
+ *
+ * @author zk
+ */
+final class PinyinIndex {
+    private static final String TABLE_RESOURCE_PATH = "/pinyin.txt";
+
+    /**
+     * 多音字组合的上限，超出后其余字只取第一个读音
+     */
+    private static final int MAX_VARIANTS = 16;
+
+    private static final String[] SUFFIXES = {
+            "特别行政区", "维吾尔自治区", "壮族自治区", "回族自治区", "自治区", "自治州", "自治县", "自治旗",
+            "街道办事处", "街道", "地区", "新区", "省", "市", "区", "县", "镇", "乡", "盟", "旗"
+    };
+
+    private final AhoCorasickAutomaton spellings;
+    private final Map<String, int[]> spellingNodes;
+    private final AhoCorasickAutomaton initials;
+    private final Map<String, int[]> initialNodes;
+    private final AddressIndex addressIndex;
+
+    PinyinIndex(AddressIndex addressIndex) {
+        this.addressIndex = addressIndex;
+        Map<String, List<String>> abbreviations = new HashMap<>();
+        for (Map.Entry<String, String> entry : ShortNameDict.getShortNameMap().entrySet()) {
+            abbreviations.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        Map<String, Set<Integer>> spellingIds = new HashMap<>();
+        Map<String, Set<Integer>> initialIds = new HashMap<>();
+        for (int nodeId = 0; nodeId < addressIndex.getNodeCount(); nodeId++) {
+            String name = addressIndex.getName(nodeId);
+            if (name == null || !addressIndex.contains(nodeId)) {
+                continue;
+            }
+            boolean withInitials = addressIndex.levelOrdinal(nodeId) <= AddressLevel.AREA.ordinal();
+            for (String spelling : spell(name)) {
+                spellingIds.computeIfAbsent(spelling, k -> new TreeSet<>()).add(nodeId);
+            }
+
+            List<String> cores = new ArrayList<>(abbreviations.getOrDefault(name, Collections.emptyList()));
+            String stripped = stripSuffix(name);
+            if (stripped != null && !cores.contains(stripped)) {
+                cores.add(stripped);
+            }
+            if (cores.isEmpty()) {
+                cores.add(name);
+            }
+            for (String core : cores) {
+                for (List<String> syllables : readings(core)) {
+                    String spelling = String.join("", syllables);
+                    spellingIds.computeIfAbsent(spelling, k -> new TreeSet<>()).add(nodeId);
+                    if (withInitials && syllables.size() >= 2) {
+                        StringBuilder sb = new StringBuilder(syllables.size());
+                        for (String syllable : syllables) {
+                            sb.append(syllable.charAt(0));
+                        }
+                        initialIds.computeIfAbsent(sb.toString(), k -> new TreeSet<>()).add(nodeId);
+                    }
+                }
+            }
+        }
+
+        this.spellingNodes = toArrays(spellingIds);
+        this.initialNodes = toArrays(initialIds);
+        this.spellings = buildAutomaton(spellingNodes.keySet());
+        this.initials = buildAutomaton(initialNodes.keySet());
+    }
+
+    /**
+     * 不含汉字且至少有两个字母时按罗马化地址处理
+     */
+    static boolean isRomanized(String address) {
+        int letters = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char ch = address.charAt(i);
+            if (Character.UnicodeScript.of(ch) == Character.UnicodeScript.HAN) {
+                return false;
+            }
+            if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')) {
+                letters++;
+            }
+        }
+        return letters >= 2;
+    }
+
+    /**
+     * 转小写并去掉空格、标点、数字
+     */
+    static String normalize(String address) {
+        StringBuilder sb = new StringBuilder(address.length());
+        for (int i = 0; i < address.length(); i++) {
+            char ch = Character.toLowerCase(address.charAt(i));
+            if (ch >= 'a' && ch <= 'z') {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 在罗马化地址中查找区划，结果中的关键词已换回中文名
+     * 能完整切分为拼音音节时按全拼匹配，否则按首字母匹配（如 hbhs）
+     */
+    List<AhoCorasickAutomaton.MatchResult> findAll(String address) {
+        String text = normalize(address);
+        boolean spelled = Table.isSpelling(text);
+        AhoCorasickAutomaton automaton = spelled ? spellings : initials;
+        Map<String, int[]> nodes = spelled ? spellingNodes : initialNodes;
+
+        List<AhoCorasickAutomaton.MatchResult> results = new ArrayList<>();
+        for (AhoCorasickAutomaton.MatchResult match : automaton.findAll(text)) {
+            Set<String> names = new LinkedHashSet<>();
+            for (int nodeId : nodes.get(match.getKeyword())) {
+                names.add(addressIndex.getName(nodeId));
+            }
+            for (String name : names) {
+                results.add(new AhoCorasickAutomaton.MatchResult(name, match.getStart(), match.getEnd()));
+            }
+        }
+        return results;
+    }
+
+    private static Set<String> spell(String name) {
+        Set<String> spellings = new LinkedHashSet<>();
+        for (List<String> syllables : readings(name)) {
+            spellings.add(String.join("", syllables));
+        }
+        return spellings;
+    }
+
+    /**
+     * 名称的所有读音组合，每个组合是逐字的音节列表；有字不在拼音表中时返回空
+     */
+    private static List<List<String>> readings(String name) {
+        List<List<String>> combos = new ArrayList<>();
+        combos.add(new ArrayList<>());
+        for (int i = 0; i < name.length(); i++) {
+            String[] options = Table.READINGS.get(name.charAt(i));
+            if (options == null) {
+                return Collections.emptyList();
+            }
+            int variants = combos.size() * options.length <= MAX_VARIANTS ? options.length : 1;
+            List<List<String>> next = new ArrayList<>(combos.size() * variants);
+            for (List<String> combo : combos) {
+                for (int v = 0; v < variants; v++) {
+                    List<String> extended = new ArrayList<>(combo);
+                    extended.add(options[v]);
+                    next.add(extended);
+                }
+            }
+            combos = next;
+        }
+        return combos;
+    }
+
+    private static String stripSuffix(String name) {
+        for (String suffix : SUFFIXES) {
+            if (name.endsWith(suffix) && name.length() - suffix.length() >= 2) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, Set<Integer>> ids) {
+        Map<String, int[]> result = new HashMap<>(ids.size() * 2);
+        for (Map.Entry<String, Set<Integer>> entry : ids.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return result;
+    }
+
+    private static AhoCorasickAutomaton buildAutomaton(Set<String> patterns) {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
+        patterns.forEach(automaton::addPattern);
+        automaton.buildFailurePointers();
+        return automaton;
+    }
+
+    /**
+     * 拼音表只在第一次启用拼音索引时加载
+     */
+    private static final class Table {
+        static final Map<Character, String[]> READINGS = new HashMap<>();
+        static final Set<String> SYLLABLES = new HashSet<>();
+        static int maxSyllableLength;
+
+        static {
+            try (InputStream is = PinyinIndex.class.getResourceAsStream(TABLE_RESOURCE_PATH)) {
+                if (is == null) {
+                    throw new RuntimeException("Cannot find " + TABLE_RESOURCE_PATH + " in classpath");
+                }
+                Map<Character, List<String>> readings = new HashMap<>();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        int colon = line.indexOf(':');
+                        String syllable = line.substring(0, colon);
+                        SYLLABLES.add(syllable);
+                        maxSyllableLength = Math.max(maxSyllableLength, syllable.length());
+                        for (int i = colon + 1; i < line.length(); i++) {
+                            readings.computeIfAbsent(line.charAt(i), k -> new ArrayList<>(1)).add(syllable);
+                        }
+                    }
+                }
+                readings.forEach((ch, list) -> READINGS.put(ch, list.toArray(new String[0])));
+            } catch (IOException e) {
+                throw new RuntimeException("Error loading pinyin table", e);
+            }
+        }
+
+        /**
+         * 能否完整切分为拼音音节
+         */
+        static boolean isSpelling(String text) {
+            boolean[] reachable = new boolean[text.length() + 1];
+            reachable[0] = true;
+            for (int i = 0; i < text.length(); i++) {
+                if (!reachable[i]) {
+                    continue;
+                }
+                for (int len = 1; len <= maxSyllableLength && i + len <= text.length(); len++) {
+                    if (SYLLABLES.contains(text.substring(i, i + len))) {
+                        reachable[i + len] = true;
+                    }
+                }
+            }
+            return reachable[text.length()];
+        }
+    }
+}
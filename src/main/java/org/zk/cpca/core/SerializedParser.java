@@ -0,0 +1,88 @@
+package org.zk.cpca.core;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * AddressParser 的序列化代理
+ * 反序列化时先读数据版本，本 JVM 已持有该版本则直接跳过数据体，多个任务共享同一个解析器实例
+ *
+ * @author zk
+ */
+final class SerializedParser implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private String version;
+    private byte[] bytes;
+
+    /**
+     * Externalizable 需要公开的无参构造
+     */
+    public SerializedParser() {
+    }
+
+    SerializedParser(String version, byte[] bytes) {
+        this.version = version;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(version);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        version = in.readUTF();
+        int length = in.readInt();
+        if (AddressParserHolder.get(version) != null) {
+            skipFully(in, length);
+            return;
+        }
+        bytes = new byte[length];
+        in.readFully(bytes);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        byte[] data = bytes;
+        if (data == null) {
+            AddressParser parser = AddressParserHolder.get(version);
+            if (parser != null) {
+                return parser;
+            }
+            // 读取与解析之间实例被移除，只能由调用方重新分发
+            throw new InvalidObjectException("Dataset " + version + " was evicted during deserialization");
+        }
+        return AddressParserHolder.getOrLoad(version, () -> AddressParser.fromBytes(data));
+    }
+
+    private static void skipFully(ObjectInput in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= (int) skipped;
+        }
+    }
+
+    static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.zk.cpca.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.zk.cpca.model.ParseResult;
+import org.zk.cpca.model.Province;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * 按省份分片的解析器
+ * 先用只包含省份全称与简称的小自动机识别省份，再转发到负责该省的分片；
+ * 地址中没有省份、省份不归任何分片或分片解析为空时，回退到全量解析器（首次使用时才加载）
+ * <p>
+ * 数据只绑定一次，各分片通过 {@link ParserOptions#getProvinces()} 取走自己的省份，绑定结果不再保留，
+ * 未分配给任何分片的省份在构建结束后即可回收；回退解析器首次使用时重新读取并绑定数据
+ *
+ * @author zk
+ */
+@Slf4j
+public class ShardedAddressParser {
+    private final AhoCorasickAutomaton provinceAutomaton;
+    private final Map<String, String> provinceByPattern;
+    private final Map<String, AddressParser> shardByProvince;
+    private final Supplier<String> jsonSource;
+    private final ParserOptions fallbackOptions;
+    private volatile AddressParser fallback;
+
+    /**
+     * 使用 resources 下的数据文件构建分片，带全量回退
+     *
+     * @param resourcePath resources目录下的文件路径
+     * @param shards       每个分片负责的省份（全称或简称）
+     */
+    public ShardedAddressParser(String resourcePath, List<Set<String>> shards) {
+        this(resourcePath, shards, ParserOptions.defaults(), true);
+    }
+
+    /**
+     * @param resourcePath   resources目录下的文件路径
+     * @param shards         每个分片负责的省份（全称或简称）
+     * @param options        各分片共用的构建选项，其中的 provinces 会被分片覆盖
+     * @param fallbackToFull 是否在无法路由时回退到全量解析器
+     */
+    public ShardedAddressParser(String resourcePath, List<Set<String>> shards,
+                                ParserOptions options, boolean fallbackToFull) {
+        this(() -> AddressParser.readResource(resourcePath), shards, options, fallbackToFull, true);
+    }
+
+    /**
+     * 使用外部数据文件构建分片
+     */
+    public ShardedAddressParser(Path jsonFilePath, List<Set<String>> shards,
+                                ParserOptions options, boolean fallbackToFull) {
+        this(() -> AddressParser.readFile(jsonFilePath), shards, options, fallbackToFull, false);
+    }
+
+    private ShardedAddressParser(Supplier<String> jsonSource, List<Set<String>> shards,
+                                 ParserOptions options, boolean fallbackToFull, boolean validate) {
+        List<Province> provinces = AddressIndex.readProvinces(jsonSource.get(), options.getMaxLevel(),
+                options.isParallelBuild());
+        if (validate) {
+            AddressDataValidator.validateProvinces(provinces);
+        }
+
+        this.shardByProvince = new HashMap<>();
+        for (Set<String> shard : shards) {
+            ParserOptions shardOptions = options.toBuilder().provinces(shard).build();
+            AddressParser parser = AddressParser.fromProvinces(provinces, shardOptions);
+            for (String name : shard) {
+                String fullName = ShortNameDict.toFullName(name);
+                if (shardByProvince.put(fullName, parser) != null) {
+                    throw new IllegalArgumentException("省份被分配到多个分片: " + fullName);
+                }
+            }
+        }
+
+        // 省份全称及其简称组成的小自动机，只用来识别省份
+        this.provinceAutomaton = new AhoCorasickAutomaton();
+        this.provinceByPattern = new HashMap<>();
+        for (Province province : provinces) {
+            provinceByPattern.put(province.getName(), province.getName());
+        }
+        for (Map.Entry<String, String> entry : ShortNameDict.getShortNameMap().entrySet()) {
+            if (provinceByPattern.containsKey(entry.getValue())) {
+                provinceByPattern.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        provinceByPattern.keySet().forEach(provinceAutomaton::addPattern);
+        provinceAutomaton.buildFailurePointers();
+
+        for (String province : shardByProvince.keySet()) {
+            if (!provinceByPattern.containsKey(province)) {
+                log.warn("Shard province not found in dataset: {}", province);
+            }
+        }
+
+        this.jsonSource = fallbackToFull ? jsonSource : null;
+        this.fallbackOptions = options.toBuilder().provinces(null).build();
+    }
+
+    public List<ParseResult> parse(String address) {
+        return parse(address, null);
+    }
+
+    public List<ParseResult> parse(String address, FilterCondition filter) {
+        if (StringUtils.isBlank(address)) {
+            return Collections.emptyList();
+        }
+
+        String province = detectProvince(address);
+        AddressParser shard = province == null ? null : shardByProvince.get(province);
+        if (shard != null) {
+            List<ParseResult> results = shard.parse(address, filter);
+            // 简称可能出现在其它省的地名里（如“海南藏族自治州”），分片解析为空时交给全量索引
+            if (!results.isEmpty() || jsonSource == null) {
+                return results;
+            }
+        }
+
+        AddressParser full = getFallback();
+        return full == null ? Collections.emptyList() : full.parse(address, filter);
+    }
+
+    /**
+     * 识别地址中的省份，取最靠前、最长的命中
+     *
+     * @return 省份全称，未识别出时返回 null
+     */
+    public String detectProvince(String address) {
+        if (StringUtils.isBlank(address)) {
+            return null;
+        }
+        AhoCorasickAutomaton.MatchResult best = null;
+        for (AhoCorasickAutomaton.MatchResult match : provinceAutomaton.findAll(address)) {
+            if (best == null || match.getStart() < best.getStart()
+                    || (match.getStart() == best.getStart() && match.getEnd() > best.getEnd())) {
+                best = match;
+            }
+        }
+        return best == null ? null : provinceByPattern.get(best.getKeyword());
+    }
+
+    /**
+     * 获取负责指定省份的分片
+     */
+    public AddressParser getShard(String province) {
+        return shardByProvince.get(ShortNameDict.toFullName(province));
+    }
+
+    private AddressParser getFallback() {
+        if (jsonSource == null) {
+            return null;
+        }
+        AddressParser parser = fallback;
+        if (parser == null) {
+            synchronized (this) {
+                parser = fallback;
+                if (parser == null) {
+                    log.info("Loading full index for shard fallback");
+                    List<Province> provinces = AddressIndex.readProvinces(jsonSource.get(),
+                            fallbackOptions.getMaxLevel(), fallbackOptions.isParallelBuild());
+                    parser = AddressParser.fromProvinces(provinces, fallbackOptions);
+                    fallback = parser;
+                }
+            }
+        }
+        return parser;
+    }
+}
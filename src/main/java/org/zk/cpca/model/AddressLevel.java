@@ -0,0 +1,15 @@
+package org.zk.cpca.model;
+
+/**
+ * 行政区划层级，按从高到低排列
+ */
+public enum AddressLevel {
+    PROVINCE,
+    CITY,
+    AREA,
+    TOWN;
+
+    public boolean includes(AddressLevel level) {
+        return level.ordinal() <= ordinal();
+    }
+}
@@ -0,0 +1,23 @@
+package org.zk.cpca.model;
+
+/**
+ * 聚合时对歧义行（多个同分最佳结果）的处理方式
+ */
+public enum AmbiguityPolicy {
+    /**
+     * 不计入任何区划，只计入歧义行数
+     */
+    SKIP,
+    /**
+     * 计入按名称排序的第一个结果，与 parse 返回的第一个结果相同
+     */
+    FIRST,
+    /**
+     * 每个结果各计一次
+     */
+    ALL,
+    /**
+     * 计入所有结果最近的共同上级，如多个省都有的同名镇没有共同上级时按 SKIP 处理
+     */
+    COMMON_ANCESTOR
+}
@@ -0,0 +1,47 @@
+package org.zk.cpca.model;
+
+import lombok.Getter;
+
+/**
+ * 按列存放的批量解析结果，第 i 行对应第 i 个输入地址
+ * <p>
+ * 各列由调用方提供，可以直接是 Arrow 等列式容器背后的数组；未识别的层级代码为 0
+ */
+@Getter
+public class CodeColumns {
+    private final long[] provinceCodes;
+    private final long[] cityCodes;
+    private final long[] areaCodes;
+    private final long[] townCodes;
+    /**
+     * 与最佳结果同分的候选数，0 表示未识别，大于 1 表示存在歧义
+     */
+    private final int[] ambiguity;
+    /**
+     * 最佳结果的匹配分数
+     */
+    private final int[] scores;
+
+    public CodeColumns(int rows) {
+        this(new long[rows], new long[rows], new long[rows], new long[rows], new int[rows], new int[rows]);
+    }
+
+    public CodeColumns(long[] provinceCodes, long[] cityCodes, long[] areaCodes, long[] townCodes,
+                       int[] ambiguity, int[] scores) {
+        int rows = provinceCodes.length;
+        if (cityCodes.length != rows || areaCodes.length != rows || townCodes.length != rows
+                || ambiguity.length != rows || scores.length != rows) {
+            throw new IllegalArgumentException("All columns must have the same length");
+        }
+        this.provinceCodes = provinceCodes;
+        this.cityCodes = cityCodes;
+        this.areaCodes = areaCodes;
+        this.townCodes = townCodes;
+        this.ambiguity = ambiguity;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return provinceCodes.length;
+    }
+}
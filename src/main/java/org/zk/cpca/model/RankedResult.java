@@ -0,0 +1,31 @@
+package org.zk.cpca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 带评分的解析结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RankedResult {
+    private ParseResult result;
+    /**
+     * 匹配分数：省 4、市 3、区县 2、街道 1 累加
+     */
+    private int score;
+    /**
+     * 近似命中的编辑距离之和，全部精确命中时为 0；同分时小的排前面
+     */
+    private int edits;
+    /**
+     * 命中关键词覆盖的字符数
+     */
+    private int coverage;
+    /**
+     * 是否为省市区完整链
+     */
+    private boolean complete;
+}
@@ -0,0 +1,322 @@
+package org.zk.cpca.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.zk.cpca.core.AddressParser;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 基于 JDK 内置 HttpServer 的轻量解析服务，不引入额外依赖
+ * <ul>
+ *     <li>GET  /parse?address=... 解析单个地址，返回结果数组</li>
+ *     <li>POST /parse 请求体为换行分隔的地址或 JSON 字符串数组，按行流式返回 NDJSON</li>
+ *     <li>GET  /metrics Prometheus 文本格式指标</li>
+ * </ul>
+ * 所有请求的地址汇入同一个 {@link MicroBatcher}，凑批后由共享的工作线程池解析。
+ * 结果在超时时间内没有返回，或服务正在关闭时，返回 503；POST 已开始流式输出后出现这种情况，
+ * 对应的行改为 {"address":...,"error":"unavailable"}
+ *
+ * @author zk
+ */
+@Slf4j
+public class AddressHttpServer implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final byte[] ADDRESS_FIELD = "{\"address\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULTS_FIELD = ",\"results\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LINE_END = "}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UNAVAILABLE_LINE_END = ",\"error\":\"unavailable\"}\n".getBytes(StandardCharsets.UTF_8);
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    private final HttpServer server;
+    private final ExecutorService ioExecutor;
+    private final MicroBatcher batcher;
+    private final ServerMetrics metrics;
+    private final long timeoutNanos;
+
+    public AddressHttpServer(AddressParser parser, int port, int workerThreads,
+                             int maxBatchSize, long maxDelayMicros) throws IOException {
+        this(parser, port, workerThreads, maxBatchSize, maxDelayMicros, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis 单个请求等待解析结果的最长时间，超时返回 503
+     */
+    public AddressHttpServer(AddressParser parser, int port, int workerThreads,
+                             int maxBatchSize, long maxDelayMicros, long timeoutMillis) throws IOException {
+        this.metrics = new ServerMetrics();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.batcher = new MicroBatcher(parser, workerThreads, maxBatchSize, maxDelayMicros, metrics);
+        this.ioExecutor = Executors.newCachedThreadPool(MicroBatcher.daemonFactory("cpca-http-"));
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.server.createContext("/parse", this::handleParse);
+        this.server.createContext("/metrics", this::handleMetrics);
+        this.server.setExecutor(ioExecutor);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Address server listening on {}", server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        batcher.close();
+        ioExecutor.shutdown();
+    }
+
+    private void handleParse(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String method = exchange.getRequestMethod();
+            if ("GET".equalsIgnoreCase(method)) {
+                String address = queryParam(exchange, "address");
+                if (address == null) {
+                    sendText(exchange, 400, "missing query parameter: address");
+                    return;
+                }
+                byte[] body = awaitResult(batcher.submitJson(address), start + timeoutNanos);
+                if (body == null) {
+                    metrics.recordError();
+                    sendText(exchange, 503, "service unavailable");
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                metrics.recordRequest(1, System.nanoTime() - start);
+            } else if ("POST".equalsIgnoreCase(method)) {
+                List<String> addresses = readAddresses(exchange);
+                List<CompletableFuture<byte[]>> futures = new ArrayList<>(addresses.size());
+                for (String address : addresses) {
+                    futures.add(batcher.submitJson(address));
+                }
+                // 第一行的结果到了才发送响应头，这之前不可用还能返回 503
+                long deadline = start + timeoutNanos;
+                byte[] first = addresses.isEmpty() ? null : awaitResult(futures.get(0), deadline);
+                if (!addresses.isEmpty() && first == null) {
+                    futures.forEach(future -> future.cancel(false));
+                    metrics.recordError();
+                    sendText(exchange, 503, "service unavailable");
+                    return;
+                }
+                streamResults(exchange, addresses, futures, first, deadline);
+                metrics.recordRequest(addresses.size(), System.nanoTime() - start);
+            } else {
+                sendText(exchange, 405, "method not allowed");
+            }
+        } catch (IllegalArgumentException e) {
+            metrics.recordError();
+            sendError(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.recordError();
+            sendError(exchange, 503, "service unavailable");
+        } catch (Exception e) {
+            metrics.recordError();
+            log.error("Failed to handle request", e);
+            sendError(exchange, 500, "internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 分块传输，按输入顺序逐行写出，先完成的地址不用等整批结束
+     * 结果部分由解析器直接给出编码好的 JSON，这里只拼接
+     */
+    private void streamResults(HttpExchange exchange, List<String> addresses, List<CompletableFuture<byte[]>> futures,
+                               byte[] first, long deadline) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), 8192)) {
+            for (int i = 0; i < addresses.size(); i++) {
+                byte[] result = i == 0 ? first : awaitResult(futures.get(i), deadline);
+                out.write(ADDRESS_FIELD);
+                MAPPER.writeValue(new NonClosingOutputStream(out), addresses.get(i));
+                if (result == null) {
+                    metrics.recordError();
+                    out.write(UNAVAILABLE_LINE_END);
+                    continue;
+                }
+                out.write(RESULTS_FIELD);
+                out.write(result);
+                out.write(LINE_END);
+            }
+        }
+    }
+
+    /**
+     * 在 deadline 之前等待解析结果，超时或任务被拒绝（服务关闭、线程池拒绝）时返回 null
+     */
+    private static byte[] awaitResult(CompletableFuture<byte[]> future, long deadline) throws InterruptedException {
+        try {
+            return future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return null;
+            }
+            throw new IllegalStateException("Failed to parse address", e.getCause());
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            sendText(exchange, 200, metrics.render(batcher.queueSize()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private List<String> readAddresses(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        String text = new String(body, StandardCharsets.UTF_8).trim();
+        if (text.startsWith("[")) {
+            try {
+                return MAPPER.readValue(text, new TypeReference<List<String>>() {
+                });
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("malformed JSON array: " + e.getOriginalMessage());
+            }
+        }
+        List<String> addresses = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    addresses.add(line.trim());
+                }
+            }
+        }
+        return addresses;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, n);
+            if (buffer.size() > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("request body too large");
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) throws UnsupportedEncodingException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 响应头还没发出时返回错误状态码；流式输出已经开始（状态码已是 200）时无法再改状态，
+     * 只记录日志，由调用方 finally 中的 close 结束这次响应，客户端会看到不完整的分块流
+     */
+    private static void sendError(HttpExchange exchange, int status, String text) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            log.warn("Response already started with status {}, aborting stream: {}", exchange.getResponseCode(), text);
+            return;
+        }
+        sendText(exchange, status, text);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Jackson 写完会关闭流，这里挡住 close，保证后续行还能继续写
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 启动参数：--port 8080 --data /path/to/cpca.json --workers 8 --batch 64 --delay-micros 200 --timeout-millis 10000
+     * --tcp-nodelay true
+     * 未指定 --data 时使用 resources 下的默认数据
+     * <p>
+     * 响应头与响应体分两次写出，开启 Nagle 时会与客户端的延迟 ACK 叠加出约 40ms 的等待。
+     * --tcp-nodelay true 会设置 JVM 全局的 sun.net.httpserver.nodelay，影响进程内所有 JDK HttpServer，
+     * 因此只在独立启动时按需开启；嵌入到其它应用时请由应用自己决定是否设置该属性
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseArgs(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        int workers = Integer.parseInt(options.getOrDefault("workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int batch = Integer.parseInt(options.getOrDefault("batch", "64"));
+        long delayMicros = Long.parseLong(options.getOrDefault("delay-micros", "200"));
+        long timeoutMillis = Long.parseLong(options.getOrDefault("timeout-millis", String.valueOf(DEFAULT_TIMEOUT_MILLIS)));
+        // 必须在创建第一个 HttpServer 之前设置，JDK 只在初始化时读取一次
+        if (Boolean.parseBoolean(options.get("tcp-nodelay"))) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        AddressParser parser = options.containsKey("data")
+                ? new AddressParser(Paths.get(options.get("data")))
+                : new AddressParser();
+
+        AddressHttpServer server = new AddressHttpServer(parser, port, workers, batch, delayMicros, timeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,147 @@
+package org.zk.cpca.server;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本机压测客户端，固定并发持续发送 GET /parse，统计吞吐与延迟分位数
+ * <p>
+ * 启动参数：--url http://localhost:8080 --concurrency 32 --seconds 30 --addresses addresses.txt
+ *
+ * @author zk
+ */
+public class AddressLoadGenerator {
+    private static final List<String> SAMPLE_ADDRESSES = Arrays.asList(
+            "湖北省黄石市下陆区团城山",
+            "保安镇大王村",
+            "新疆伊犁霍尔果斯市",
+            "长泰县兴泰开发区",
+            "广东省深圳市南山区粤海街道"
+    );
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = AddressHttpServer.parseArgs(args);
+        String baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "30"));
+        List<String> addresses = options.containsKey("addresses")
+                ? Files.readAllLines(Paths.get(options.get("addresses")), StandardCharsets.UTF_8)
+                : SAMPLE_ADDRESSES;
+
+        Report report = run(baseUrl, addresses, concurrency, TimeUnit.SECONDS.toNanos(seconds));
+        System.out.println(report);
+    }
+
+    public static Report run(String baseUrl, List<String> addresses, int concurrency, long durationNanos)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long deadline = System.nanoTime() + durationNanos;
+        AtomicLong errors = new AtomicLong();
+        List<long[]> perThread = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+
+        for (int t = 0; t < concurrency; t++) {
+            final int offset = t;
+            pool.execute(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                int i = offset;
+                while (System.nanoTime() < deadline) {
+                    String address = addresses.get(i++ % addresses.size());
+                    long begin = System.nanoTime();
+                    try {
+                        get(baseUrl, address);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - begin;
+                }
+                perThread.add(Arrays.copyOf(latencies, count));
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(durationNanos + TimeUnit.SECONDS.toNanos(30), TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        int total = 0;
+        for (long[] latencies : perThread) {
+            total += latencies.length;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] latencies : perThread) {
+            System.arraycopy(latencies, 0, all, pos, latencies.length);
+            pos += latencies.length;
+        }
+        Arrays.sort(all);
+        return new Report(total, errors.get(), elapsed, all);
+    }
+
+    private static void get(String baseUrl, String address) throws IOException {
+        URL url = new URL(baseUrl + "/parse?address=" + URLEncoder.encode(address, "UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream in = connection.getResponseCode() < 400
+                ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[4096];
+            while (in != null && in.read(buffer) != -1) {
+                // 读完响应体以便连接复用
+            }
+        }
+        if (connection.getResponseCode() >= 400) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+    }
+
+    public static final class Report {
+        private final long requests;
+        private final long errors;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+
+        Report(long requests, long errors, long elapsedNanos, long[] sortedLatencies) {
+            this.requests = requests;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double throughput() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        public double percentileMillis(double p) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(p * sortedLatencies.length) - 1);
+            return sortedLatencies[Math.max(index, 0)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d errors=%d throughput=%.1f req/s p50=%.3f ms p99=%.3f ms max=%.3f ms",
+                    requests, errors, throughput(), percentileMillis(0.50), percentileMillis(0.99),
+                    percentileMillis(1.0));
+        }
+    }
+}
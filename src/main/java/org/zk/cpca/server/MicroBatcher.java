@@ -0,0 +1,195 @@
+package org.zk.cpca.server;
+
+import lombok.extern.slf4j.Slf4j;
+import org.zk.cpca.core.AddressParser;
+import org.zk.cpca.model.ParseResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * 微批调度：并发请求提交的地址先进入队列，调度线程按批量大小或等待时间凑批后交给共享的工作线程池
+ * <p>
+ * 每个返回的 future 都一定会完成：批次被线程池拒绝、调度线程被中断或调度器关闭时，
+ * 队列中与已取出未提交的任务都以 {@link RejectedExecutionException} 异常完成
+ *
+ * @author zk
+ */
+@Slf4j
+public class MicroBatcher implements AutoCloseable {
+    private final AddressParser parser;
+    private final BlockingQueue<Task<?>> queue;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ServerMetrics metrics;
+    private volatile boolean running = true;
+
+    /**
+     * @param parser        解析器
+     * @param workerThreads 工作线程数
+     * @param maxBatchSize  单批最大地址数
+     * @param maxDelayMicros 凑批最长等待时间（微秒）
+     * @param metrics       指标
+     */
+    public MicroBatcher(AddressParser parser, int workerThreads, int maxBatchSize,
+                        long maxDelayMicros, ServerMetrics metrics) {
+        this.parser = parser;
+        this.queue = new LinkedBlockingQueue<>();
+        this.workers = Executors.newFixedThreadPool(workerThreads, daemonFactory("cpca-worker-"));
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.metrics = metrics;
+        this.dispatcher = daemonFactory("cpca-batcher-").newThread(this::dispatchLoop);
+        this.dispatcher.start();
+    }
+
+    public CompletableFuture<List<ParseResult>> submit(String address) {
+        return enqueue(address, parser::parse);
+    }
+
+    /**
+     * 解析结果直接编码为 UTF-8 JSON 数组，见 {@link AddressParser#writeResultJson}
+     */
+    public CompletableFuture<byte[]> submitJson(String address) {
+        return enqueue(address, this::toJson);
+    }
+
+    private byte[] toJson(String address) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            parser.writeResultJson(address, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private <T> CompletableFuture<T> enqueue(String address, Function<String, T> work) {
+        Task<T> task = new Task<>(address, work);
+        if (!running) {
+            reject(task);
+            return task.future;
+        }
+        queue.add(task);
+        // 与 close 并发时，close 可能已经清空过队列，这里自己收回
+        if (!running && queue.remove(task)) {
+            reject(task);
+        }
+        return task.future;
+    }
+
+    public int queueSize() {
+        return queue.size();
+    }
+
+    private void dispatchLoop() {
+        List<Task<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Task<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Task<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                List<Task<?>> submitted = new ArrayList<>(batch);
+                batch.clear();
+                try {
+                    workers.execute(() -> runBatch(submitted));
+                    metrics.recordBatch(submitted.size());
+                } catch (RejectedExecutionException e) {
+                    log.warn("Worker pool rejected batch of {}", submitted.size(), e);
+                    submitted.forEach(this::reject);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // 已取出但还没提交的，以及队列里剩下的
+        batch.forEach(this::reject);
+        rejectQueued();
+    }
+
+    private void reject(Task<?> task) {
+        task.future.completeExceptionally(new RejectedExecutionException("batcher closed"));
+    }
+
+    private void rejectQueued() {
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            reject(task);
+        }
+    }
+
+    private void runBatch(List<Task<?>> batch) {
+        for (Task<?> task : batch) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                metrics.recordError();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 停止接收新地址；已交给工作线程的批次照常完成，其余任务以异常完成
+     */
+    @Override
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+        workers.shutdown();
+        rejectQueued();
+    }
+
+    static ThreadFactory daemonFactory(String prefix) {
+        return new ThreadFactory() {
+            private int index;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + index++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static final class Task<T> {
+        final String address;
+        final Function<String, T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(String address, Function<String, T> work) {
+            this.address = address;
+            this.work = work;
+        }
+
+        void run() {
+            future.complete(work.apply(address));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.zk.cpca.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务指标：计数器与固定桶的延迟直方图，输出为 Prometheus 文本格式
+ *
+ * @author zk
+ */
+public class ServerMetrics {
+    /**
+     * 延迟桶上界（微秒）
+     */
+    private static final long[] BUCKETS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 1_000_000
+    };
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder addresses = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedAddresses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder latencyMicrosSum = new LongAdder();
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS_MICROS.length + 1);
+
+    public void recordRequest(int addressCount, long elapsedNanos) {
+        requests.increment();
+        addresses.add(addressCount);
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        latencyMicrosSum.add(micros);
+        int bucket = 0;
+        while (bucket < BUCKETS_MICROS.length && micros > BUCKETS_MICROS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+    }
+
+    public void recordBatch(int size) {
+        batches.increment();
+        batchedAddresses.add(size);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    public String render(int queueSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE cpca_requests_total counter\n");
+        sb.append("cpca_requests_total ").append(requests.sum()).append('\n');
+        sb.append("# TYPE cpca_addresses_total counter\n");
+        sb.append("cpca_addresses_total ").append(addresses.sum()).append('\n');
+        sb.append("# TYPE cpca_errors_total counter\n");
+        sb.append("cpca_errors_total ").append(errors.sum()).append('\n');
+        sb.append("# TYPE cpca_batches_total counter\n");
+        sb.append("cpca_batches_total ").append(batches.sum()).append('\n');
+        sb.append("# TYPE cpca_batched_addresses_total counter\n");
+        sb.append("cpca_batched_addresses_total ").append(batchedAddresses.sum()).append('\n');
+        sb.append("# TYPE cpca_queue_size gauge\n");
+        sb.append("cpca_queue_size ").append(queueSize).append('\n');
+
+        sb.append("# TYPE cpca_request_latency_seconds histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS_MICROS.length; i++) {
+            cumulative += latencyBuckets.get(i);
+            sb.append("cpca_request_latency_seconds_bucket{le=\"")
+                    .append(BUCKETS_MICROS[i] / 1_000_000.0).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += latencyBuckets.get(BUCKETS_MICROS.length);
+        sb.append("cpca_request_latency_seconds_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append("cpca_request_latency_seconds_sum ").append(latencyMicrosSum.sum() / 1_000_000.0).append('\n');
+        sb.append("cpca_request_latency_seconds_count ").append(cumulative).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package org.zk.cpca;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.zk.cpca.core.AddressDataValidator;
+import org.zk.cpca.core.AddressDataValidator.Severity;
+import org.zk.cpca.core.AddressDataValidator.Violation;
+import org.zk.cpca.model.Area;
+import org.zk.cpca.model.City;
+import org.zk.cpca.model.Province;
+import org.zk.cpca.model.Town;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 数据校验测试，每种问题一个用例
+ *
+ * @author zk
+ */
+public class AddressDataValidatorTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 合法数据测试
+     * 只有简称指向的全称不存在的警告，可以正常加载
+     */
+    @Test
+    void testValidData() {
+        List<Province> provinces = Collections.singletonList(hubei());
+        Assertions.assertTrue(structural(validate(provinces)).isEmpty());
+        AddressDataValidator.validateProvinces(provinces);
+    }
+
+    /**
+     * 空数据测试
+     */
+    @Test
+    void testEmpty() {
+        Violation violation = single(validate(Collections.emptyList()));
+        Assertions.assertEquals(Severity.ERROR, violation.getSeverity());
+        Assertions.assertEquals("$", violation.getPath());
+    }
+
+    /**
+     * 名称为空测试
+     */
+    @Test
+    void testBlankName() {
+        Province province = hubei();
+        province.getCitys().get(0).getAreas().get(0).setName(" ");
+
+        Violation violation = single(structural(validate(Collections.singletonList(province))));
+        Assertions.assertEquals(Severity.ERROR, violation.getSeverity());
+        Assertions.assertEquals("$[0].citys[0].areas[0].name", violation.getPath());
+        assertRejected(province);
+    }
+
+    /**
+     * 代码为空测试
+     */
+    @Test
+    void testBlankCode() {
+        Province province = hubei();
+        province.getCitys().get(0).setCode(null);
+
+        Violation violation = single(structural(validate(Collections.singletonList(province))));
+        Assertions.assertEquals(Severity.ERROR, violation.getSeverity());
+        Assertions.assertEquals("$[0].citys[0].code", violation.getPath());
+        assertRejected(province);
+    }
+
+    /**
+     * 代码格式测试
+     * 不是 9 位数字时报错，且不再对其下级做前缀检查
+     */
+    @Test
+    void testMalformedCode() {
+        Province province = hubei();
+        province.getCitys().get(0).getAreas().get(0).setCode("42020400A");
+
+        Violation violation = single(structural(validate(Collections.singletonList(province))));
+        Assertions.assertEquals(Severity.ERROR, violation.getSeverity());
+        Assertions.assertEquals("$[0].citys[0].areas[0].code", violation.getPath());
+        assertRejected(province);
+    }
+
+    /**
+     * 代码重复测试
+     * 跨省份重复同样能发现，路径指向后出现的一个
+     */
+    @Test
+    void testDuplicateCode() {
+        Province henan = new Province("河南省", "410000000", Arrays.asList(
+                new City("平顶山市", "420200000", Collections.emptyList())));
+        List<Province> provinces = Arrays.asList(hubei(), henan);
+
+        List<Violation> violations = structural(validate(provinces)).stream()
+                .filter(v -> v.getSeverity() == Severity.ERROR)
+                .collect(Collectors.toList());
+        Violation violation = single(violations);
+        Assertions.assertEquals("$[1].citys[0].code", violation.getPath());
+        Assertions.assertTrue(violation.getMessage().contains("$[0].citys[0]"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AddressDataValidator.validateProvinces(provinces));
+    }
+
+    /**
+     * 代码前缀测试
+     * 下级代码与上级代码前缀不一致只是警告，不影响加载
+     */
+    @Test
+    void testParentPrefix() {
+        Province province = hubei();
+        province.getCitys().get(0).getAreas().get(0).getTowns().get(0).setCode("420299001");
+
+        Violation violation = single(structural(validate(Collections.singletonList(province))));
+        Assertions.assertEquals(Severity.WARNING, violation.getSeverity());
+        Assertions.assertEquals("$[0].citys[0].areas[0].towns[0].code", violation.getPath());
+        AddressDataValidator.validateProvinces(Collections.singletonList(province));
+    }
+
+    /**
+     * 同级名称重复测试
+     * 同一上级下名称重复只是警告，不影响加载
+     */
+    @Test
+    void testDuplicateSiblingName() {
+        Province province = hubei();
+        province.getCitys().get(0).getAreas().get(0).getTowns().get(1).setName("东方山街道");
+
+        Violation violation = single(structural(validate(Collections.singletonList(province))));
+        Assertions.assertEquals(Severity.WARNING, violation.getSeverity());
+        Assertions.assertEquals("$[0].citys[0].areas[0].towns[1].name", violation.getPath());
+        AddressDataValidator.validateProvinces(Collections.singletonList(province));
+    }
+
+    /**
+     * 简称测试
+     * 简称表中指向的全称不在数据中时给出警告，存在的不报
+     */
+    @Test
+    void testDanglingShortName() {
+        List<Violation> violations = validate(Collections.singletonList(hubei()));
+
+        Violation xinjiang = violations.stream()
+                .filter(v -> v.getPath().equals("short_name[新疆]"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        Assertions.assertEquals(Severity.WARNING, xinjiang.getSeverity());
+        Assertions.assertTrue(xinjiang.getMessage().contains("新疆维吾尔自治区"));
+        Assertions.assertTrue(violations.stream().noneMatch(v -> v.getPath().equals("short_name[湖北]")));
+    }
+
+    /**
+     * 字段顺序测试
+     * 流式校验时上级的 code 写在下级列表之后，前缀检查仍然生效，问题顺序与字段在前时相同
+     */
+    @Test
+    void testCodeAfterChildren() {
+        String json = "[{\"citys\":[{\"areas\":[{\"name\":\"下陆区\",\"code\":\"420304000\"}],"
+                + "\"name\":\"黄石市\",\"code\":\"420200000\"},"
+                + "{\"name\":\"武汉市\",\"code\":\"42010000X\"}],"
+                + "\"name\":\"湖北省\",\"code\":\"420000000\"}]";
+        List<Violation> violations = structural(AddressDataValidator.validate(json));
+        Assertions.assertEquals(2, violations.size(), violations.toString());
+        Assertions.assertEquals("$[0].citys[0].areas[0].code", violations.get(0).getPath());
+        Assertions.assertEquals(Severity.WARNING, violations.get(0).getSeverity());
+        Assertions.assertEquals("$[0].citys[1].code", violations.get(1).getPath());
+        Assertions.assertEquals(Severity.ERROR, violations.get(1).getSeverity());
+    }
+
+    /**
+     * 流式读取测试
+     * 输入流与字符串结果相同；JSON 结构不对时报无效格式
+     */
+    @Test
+    void testStreamInput() throws Exception {
+        String json = MAPPER.writeValueAsString(Collections.singletonList(hubei()));
+        Assertions.assertEquals(AddressDataValidator.validate(json),
+                AddressDataValidator.validate(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AddressDataValidator.validate("{\"name\":\"湖北省\"}"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AddressDataValidator.validate("[{\"name\":{\"a\":1},\"code\":\"420000000\"}]"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AddressDataValidator.validate("[{\"name\":\"湖北省\",\"code\":\"420000000\""));
+    }
+
+    /**
+     * 已绑定数据与 JSON 文本流式校验两条路径，结果必须完全相同
+     */
+    private static List<Violation> validate(List<Province> provinces) {
+        List<Violation> bound = AddressDataValidator.validate(provinces);
+        try {
+            Assertions.assertEquals(bound, AddressDataValidator.validate(MAPPER.writeValueAsString(provinces)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        return bound;
+    }
+
+    private static Province hubei() {
+        Area xialu = new Area("下陆区", "420204000", Arrays.asList(
+                new Town("东方山街道", "420204001"),
+                new Town("团城山街道", "420204002")));
+        City huangshi = new City("黄石市", "420200000", Arrays.asList(xialu));
+        return new Province("湖北省", "420000000", Arrays.asList(huangshi));
+    }
+
+    /**
+     * 去掉简称相关的警告，只保留数据本身的问题
+     */
+    private static List<Violation> structural(List<Violation> violations) {
+        return violations.stream()
+                .filter(v -> !v.getPath().startsWith("short_name["))
+                .collect(Collectors.toList());
+    }
+
+    private static Violation single(List<Violation> violations) {
+        Assertions.assertEquals(1, violations.size(), violations.toString());
+        return violations.get(0);
+    }
+
+    private static void assertRejected(Province province) {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> AddressDataValidator.validateProvinces(Collections.singletonList(province)));
+    }
+}
@@ -1,13 +1,47 @@
 package org.zk.cpca;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zk.cpca.core.AddressDatasetRegistry;
+import org.zk.cpca.core.AhoCorasickAutomaton;
+import org.zk.cpca.core.AddressIndex;
 import org.zk.cpca.core.AddressParser;
+import org.zk.cpca.core.AddressParserHolder;
+import org.zk.cpca.core.DivisionCounts;
 import org.zk.cpca.core.FilterCondition;
+import org.zk.cpca.core.ParserOptions;
+import org.zk.cpca.core.ShardedAddressParser;
+import org.zk.cpca.model.AddressLevel;
+import org.zk.cpca.model.AmbiguityPolicy;
+import org.zk.cpca.model.CodeColumns;
 import org.zk.cpca.model.ParseResult;
+import org.zk.cpca.model.Province;
+import org.zk.cpca.model.RankedResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 /**
  * 测试用例
@@ -97,6 +131,676 @@ public class AddressParserTest {
         Assertions.assertNull(result.getTown());
     }
 
+    /**
+     * Top-K 测试
+     * 6个‘保安镇’分数相同，只取前2个，且按名称稳定排序
+     */
+    @Test
+    void testTopK() {
+        List<RankedResult> results = parser.parseTopK("保安镇大王村", 2);
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertEquals(parser.parse("保安镇大王村").subList(0, 2),
+                Arrays.asList(results.get(0).getResult(), results.get(1).getResult()));
+
+        RankedResult best = parser.parseTopK("湖北省黄石市下陆区团城山", 3).get(0);
+        Assertions.assertEquals(best.getResult().getArea(), "下陆区");
+        Assertions.assertEquals(9, best.getScore());
+        Assertions.assertTrue(best.isComplete());
+    }
+
+    /**
+     * 线程池中调用后解析器可以回收测试
+     * 线程池里的线程调用过 parseTopK 与 writeResultJson 后，不再持有解析器
+     */
+    @Test
+    void testParserCollectableAfterPooledUse() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            WeakReference<AddressParser> reference = usedOnPool(pool);
+            for (int i = 0; i < 50 && reference.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            Assertions.assertNull(reference.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static WeakReference<AddressParser> usedOnPool(ExecutorService pool) throws Exception {
+        AddressParser local = new AddressParser();
+        pool.submit(() -> {
+            local.parseTopK("保安镇", 3);
+            local.writeResultJson("保安镇", new ByteArrayOutputStream());
+            return null;
+        }).get();
+        return new WeakReference<>(local);
+    }
+
+    /**
+     * 多版本测试
+     * 不同版本共享同一个自动机，解析结果与单独加载一致
+     */
+    @Test
+    void testMultiVersion() {
+        Map<String, String> versions = new LinkedHashMap<>();
+        versions.put("2024", "cpca_2025.json");
+        versions.put("2025", "cpca_2025.json");
+        AddressDatasetRegistry registry = AddressDatasetRegistry.fromResources(versions);
+
+        Assertions.assertEquals(parser.parse("湖北省黄石市下陆区团城山"), registry.parse("湖北省黄石市下陆区团城山", "2024"));
+        Assertions.assertEquals(6, registry.parse("保安镇大王村", "2025").size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.parse("保安镇大王村", "2023"));
+    }
+
+    /**
+     * 多版本差异测试
+     * 第二个版本把下陆区改名为下陆新区（代码随之变化）并新增西塞山区，每个版本只识别自己的名称、给出自己的代码
+     */
+    @Test
+    void testMultiVersionChanges(@TempDir Path dir) throws Exception {
+        Path v1 = dir.resolve("v1.json");
+        Path v2 = dir.resolve("v2.json");
+        Files.write(v1, ("[{\"name\":\"湖北省\",\"code\":\"420000000\",\"citys\":[{\"name\":\"黄石市\",\"code\":\"420200000\","
+                + "\"areas\":[{\"name\":\"下陆区\",\"code\":\"420204000\","
+                + "\"towns\":[{\"name\":\"团城山街道\",\"code\":\"420204002\"}]}]}]}]").getBytes(StandardCharsets.UTF_8));
+        Files.write(v2, ("[{\"name\":\"湖北省\",\"code\":\"420000000\",\"citys\":[{\"name\":\"黄石市\",\"code\":\"420200000\","
+                + "\"areas\":[{\"name\":\"下陆新区\",\"code\":\"420205000\","
+                + "\"towns\":[{\"name\":\"团城山街道\",\"code\":\"420205002\"}]},"
+                + "{\"name\":\"西塞山区\",\"code\":\"420203000\"}]}]}]").getBytes(StandardCharsets.UTF_8));
+        Map<String, Path> versions = new LinkedHashMap<>();
+        versions.put("v1", v1);
+        versions.put("v2", v2);
+        AddressDatasetRegistry registry = AddressDatasetRegistry.fromFiles(versions);
+
+        Assertions.assertEquals(registry.parse("湖北省黄石市下陆区", "v1").get(0).getArea(), "下陆区");
+        Assertions.assertNull(registry.parse("湖北省黄石市下陆区", "v2").get(0).getArea());
+        Assertions.assertEquals(registry.parse("湖北省黄石市下陆新区", "v2").get(0).getArea(), "下陆新区");
+        Assertions.assertNull(registry.parse("湖北省黄石市下陆新区", "v1").get(0).getArea());
+        Assertions.assertTrue(registry.parse("西塞山区", "v1").stream().noneMatch(r -> r.getArea() != null));
+        Assertions.assertEquals(registry.parse("西塞山区", "v2").get(0).getArea(), "西塞山区");
+
+        // 两个版本同名的街道，各自沿本版本的上级取代码
+        List<String> addresses = Collections.singletonList("黄石市团城山街道");
+        CodeColumns columns = new CodeColumns(1);
+        registry.getParser("v1").parseColumns(addresses, columns);
+        Assertions.assertEquals(420204000L, columns.getAreaCodes()[0]);
+        Assertions.assertEquals(420204002L, columns.getTownCodes()[0]);
+        registry.getParser("v2").parseColumns(addresses, columns);
+        Assertions.assertEquals(420205000L, columns.getAreaCodes()[0]);
+        Assertions.assertEquals(420205002L, columns.getTownCodes()[0]);
+        Assertions.assertEquals(-1, registry.getParser("v1").getAddressIndex().getNodeId("420203000"));
+
+        // 字节形式带着整张节点表与版本掩码，还原后仍只识别自己版本的区划
+        AddressParser restored = AddressParser.fromBytes(registry.getParser("v1").toBytes());
+        Assertions.assertEquals(registry.parse("湖北省黄石市下陆区", "v1"), restored.parse("湖北省黄石市下陆区"));
+        Assertions.assertEquals(registry.parse("湖北省黄石市下陆新区", "v1"), restored.parse("湖北省黄石市下陆新区"));
+        Assertions.assertEquals(-1, restored.getAddressIndex().getNodeId("420203000"));
+        Assertions.assertEquals(registry.getParser("v1").getAddressIndex().getProvinces(),
+                restored.getAddressIndex().getProvinces());
+    }
+
+    /**
+     * 多版本内存测试
+     * 8 个版本各把一个街道改名，各版本共用一张节点表：节点数是基础数据加上 8 个改名的街道，
+     * 没变化的省份对象在版本间是同一实例，注册表的常驻内存接近一个版本加上变化量，而不是一个版本的 8 倍
+     */
+    @Test
+    void testMultiVersionRetainedSize(@TempDir Path dir) throws Exception {
+        int versionCount = 8;
+        Map<String, Path> versions = new LinkedHashMap<>();
+        for (int v = 0; v < versionCount; v++) {
+            Path json = dir.resolve("v" + v + ".json");
+            Files.write(json, syntheticDataset(v).getBytes(StandardCharsets.UTF_8));
+            versions.put("v" + v, json);
+        }
+
+        long before = usedHeap();
+        AddressParser single = new AddressParser(versions.get("v0"), ParserOptions.builder().build());
+        long singleSize = usedHeap() - before;
+        AddressDatasetRegistry registry = AddressDatasetRegistry.fromFiles(versions);
+        long registrySize = usedHeap() - before - singleSize;
+        Assertions.assertTrue(registrySize < singleSize * 3 / 2,
+                "registry " + registrySize + " bytes, single version " + singleSize + " bytes");
+
+        int baseNodes = single.getAddressIndex().getNodeCount();
+        for (int v = 0; v < versionCount; v++) {
+            AddressIndex index = registry.getParser("v" + v).getAddressIndex();
+            Assertions.assertEquals(baseNodes + versionCount, index.getNodeCount());
+            Assertions.assertEquals(5000, index.count("110000000", AddressLevel.TOWN));
+            Assertions.assertEquals("新建第" + v + "号镇", registry.parse("新建第" + v + "号镇", "v" + v).get(0).getTown());
+            String renamed = "新建第" + v + "号镇";
+            Assertions.assertTrue(registry.parse(renamed, "v" + ((v + 1) % versionCount)).stream()
+                    .noneMatch(r -> renamed.equals(r.getTown())));
+        }
+        List<Province> first = registry.getParser("v0").getAddressIndex().getProvinces();
+        List<Province> last = registry.getParser("v7").getAddressIndex().getProvinces();
+        Assertions.assertNotSame(first.get(0), last.get(0));
+        Assertions.assertSame(first.get(1), last.get(1));
+    }
+
+    /**
+     * 4 个省、每省 10 个市、每市 10 个区县、每个区县 50 个街道；changed 指定第几个街道改名并换代码
+     */
+    private static String syntheticDataset(int changed) {
+        StringBuilder sb = new StringBuilder("[");
+        int town = 0;
+        for (int p = 0; p < 4; p++) {
+            sb.append(p > 0 ? "," : "").append(String.format("{\"name\":\"第%d省\",\"code\":\"%d0000000\",\"citys\":[",
+                    p, 11 + p));
+            for (int c = 0; c < 10; c++) {
+                sb.append(c > 0 ? "," : "").append(String.format("{\"name\":\"第%d市\",\"code\":\"%d%02d00000\",\"areas\":[",
+                        p * 10 + c, 11 + p, c + 1));
+                for (int a = 0; a < 10; a++) {
+                    sb.append(a > 0 ? "," : "").append(String.format(
+                            "{\"name\":\"第%d区\",\"code\":\"%d%02d%02d000\",\"towns\":[",
+                            (p * 10 + c) * 10 + a, 11 + p, c + 1, a + 1));
+                    for (int t = 0; t < 50; t++, town++) {
+                        String name = town == changed ? "新建第" + changed + "号镇" : "第" + town + "号镇";
+                        int suffix = town == changed ? 900 + changed : t + 1;
+                        sb.append(t > 0 ? "," : "").append(String.format("{\"name\":\"%s\",\"code\":\"%d%02d%02d%03d\"}",
+                                name, 11 + p, c + 1, a + 1, suffix));
+                    }
+                    sb.append("]}");
+                }
+                sb.append("]}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * 多次 GC 后取最小的已用堆
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * 层级裁剪测试
+     * 不索引街道/镇时，省市区仍能正常解析
+     */
+    @Test
+    void testAreaLevelOnly() {
+        AddressParser areaParser = new AddressParser("cpca_2025.json",
+                ParserOptions.builder().maxLevel(AddressLevel.AREA).build());
+
+        List<ParseResult> results = areaParser.parse("湖北省黄石市下陆区团城山");
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals(results.get(0).getArea(), "下陆区");
+        Assertions.assertTrue(areaParser.parse("保安镇大王村").isEmpty());
+    }
+
+    /**
+     * 分片测试
+     * 识别到省份时走分片，没有省份时回退到全量索引
+     */
+    @Test
+    void testSharded() {
+        ShardedAddressParser sharded = new ShardedAddressParser("cpca_2025.json",
+                Arrays.asList(Collections.singleton("湖北"), new HashSet<>(Arrays.asList("河南省", "广东省"))));
+
+        Assertions.assertEquals(sharded.detectProvince("湖北黄石下陆区"), "湖北省");
+        Assertions.assertEquals(parser.parse("湖北省黄石市下陆区团城山"), sharded.parse("湖北省黄石市下陆区团城山"));
+        Assertions.assertEquals(6, sharded.parse("保安镇大王村").size());
+        Assertions.assertEquals(1, sharded.getShard("湖北省").parse("保安镇大王村").size());
+    }
+
+    /**
+     * 序列化测试
+     * 模拟同一 executor 内多个任务反序列化广播的解析器，只还原一次并共享同一实例
+     */
+    @Test
+    void testSerialization() throws Exception {
+        AddressParser restored = AddressParser.fromBytes(parser.toBytes());
+        Assertions.assertEquals(parser.parse("湖北省黄石市下陆区团城山"), restored.parse("湖北省黄石市下陆区团城山"));
+        Assertions.assertEquals(parser.parse("保安镇大王村"), restored.parse("保安镇大王村"));
+        Assertions.assertEquals(parser.getDatasetVersion(), restored.getDatasetVersion());
+        // 索引数组与组合索引直接读回：两个关键词走组合索引，按代码反查，JSON 输出逐字节相同
+        Assertions.assertEquals(parser.getAddressIndex().getFingerprint(), restored.getAddressIndex().getFingerprint());
+        Assertions.assertEquals(parser.parse("黄石市下陆区"), restored.parse("黄石市下陆区"));
+        Assertions.assertEquals(parser.getAddressIndex().getNodeId("420204000"),
+                restored.getAddressIndex().getNodeId("420204000"));
+        ByteArrayOutputStream expectedJson = new ByteArrayOutputStream();
+        ByteArrayOutputStream restoredJson = new ByteArrayOutputStream();
+        parser.writeResultJson("保安镇", expectedJson);
+        restored.writeResultJson("保安镇", restoredJson);
+        Assertions.assertArrayEquals(expectedJson.toByteArray(), restoredJson.toByteArray());
+        Assertions.assertArrayEquals(parser.toBytes(), restored.toBytes());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(parser);
+        }
+        byte[] task = buffer.toByteArray();
+
+        AddressParserHolder.remove(parser.getDatasetVersion());
+        AddressParser first = null;
+        for (int i = 0; i < 200; i++) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(task))) {
+                AddressParser deserialized = (AddressParser) in.readObject();
+                if (first == null) {
+                    first = deserialized;
+                }
+                Assertions.assertSame(first, deserialized);
+            }
+        }
+        Assertions.assertNotSame(parser, first);
+        Assertions.assertEquals(parser.parse("新疆伊犁霍尔果斯市"), first.parse("新疆伊犁霍尔果斯市"));
+    }
+
+    /**
+     * 近似匹配测试
+     * 错一个字的街道在开启近似匹配后仍能识别，分数与精确命中相同、编辑距离排在其后；
+     * 三个字的名称只在精确命中了上级或下级时才做近似，精确结果不受影响
+     */
+    @Test
+    void testFuzzy() {
+        AddressParser fuzzyParser = new AddressParser("cpca_2025.json",
+                ParserOptions.builder().fuzzyMaxEdits(1).build());
+
+        List<ParseResult> results = fuzzyParser.parse("河南省郑州市金水区经八璐街道");
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals(results.get(0).getTown(), "经八路街道");
+        Assertions.assertNull(parser.parse("河南省郑州市金水区经八璐街道").get(0).getTown());
+
+        RankedResult fuzzy = fuzzyParser.parseTopK("河南省郑州市金水区经八璐街道", 1).get(0);
+        RankedResult exact = fuzzyParser.parseTopK("河南省郑州市金水区经八路街道", 1).get(0);
+        Assertions.assertEquals(exact.getScore(), fuzzy.getScore());
+        Assertions.assertEquals(0, exact.getEdits());
+        Assertions.assertEquals(1, fuzzy.getEdits());
+
+        Assertions.assertEquals("保安镇", fuzzyParser.parse("河南省平顶山市叶县保按镇大王村").get(0).getTown());
+        Assertions.assertTrue(fuzzyParser.parse("保按镇大王村").isEmpty());
+
+        Assertions.assertEquals("黄石市", fuzzyParser.parse("湖北省黄实市下陆区").get(0).getCity());
+        RankedResult city = fuzzyParser.parseTopK("湖北省黄实市", 1).get(0);
+        Assertions.assertEquals("黄石市", city.getResult().getCity());
+        Assertions.assertEquals(7, city.getScore());
+        Assertions.assertEquals(1, city.getEdits());
+        Assertions.assertNull(parser.parse("湖北省黄实市").get(0).getCity());
+
+        Assertions.assertEquals(parser.parse("湖北省黄石市下陆区团城山"), fuzzyParser.parse("湖北省黄石市下陆区团城山"));
+    }
+
+    /**
+     * 输入联想测试
+     * 已输入的省份作为上级范围，简称前缀也能联想出全称
+     */
+    @Test
+    void testSuggest() {
+        List<ParseResult> results = parser.suggest("湖北省黄", 5);
+        Assertions.assertFalse(results.isEmpty());
+        Assertions.assertEquals(results.get(0).getCity(), "黄石市");
+        Assertions.assertNull(results.get(0).getArea());
+        results.forEach(r -> Assertions.assertEquals(r.getProvince(), "湖北省"));
+
+        Assertions.assertEquals(parser.suggest("新", 1).get(0).getProvince(), "新疆维吾尔自治区");
+
+        FilterCondition filter = new FilterCondition();
+        filter.setCity("平顶山市");
+        List<ParseResult> filtered = parser.suggest("保安", 5, filter);
+        Assertions.assertEquals(1, filtered.size());
+        Assertions.assertEquals(filtered.get(0).getArea(), "叶县");
+    }
+
+    /**
+     * 联想超出预计算列表测试
+     * 同前缀的区划多于预计算列表时，有上级范围的只在范围子树内查找，没有范围的展开前缀子树
+     */
+    @Test
+    void testSuggestBeyondIndex(@TempDir Path dir) throws Exception {
+        StringBuilder hubeiTowns = new StringBuilder();
+        StringBuilder henanTowns = new StringBuilder();
+        for (int i = 1; i <= 20; i++) {
+            hubeiTowns.append(i > 1 ? "," : "").append(String.format(
+                    "{\"name\":\"新城第%d街道\",\"code\":\"420204%03d\"}", i, i));
+            henanTowns.append(i > 1 ? "," : "").append(String.format(
+                    "{\"name\":\"新华第%d街道\",\"code\":\"410721%03d\"}", i, i));
+        }
+        Path json = dir.resolve("suggest.json");
+        Files.write(json, ("[{\"name\":\"湖北省\",\"code\":\"420000000\",\"citys\":[{\"name\":\"黄石市\","
+                + "\"code\":\"420200000\",\"areas\":[{\"name\":\"下陆区\",\"code\":\"420204000\",\"towns\":["
+                + hubeiTowns + "]}]}]},"
+                + "{\"name\":\"河南省\",\"code\":\"410000000\",\"citys\":[{\"name\":\"新乡市\","
+                + "\"code\":\"410700000\",\"areas\":[{\"name\":\"新乡县\",\"code\":\"410721000\",\"towns\":["
+                + henanTowns + "]}]}]}]").getBytes(StandardCharsets.UTF_8));
+        AddressParser suggestParser = new AddressParser(json, ParserOptions.builder().build());
+
+        FilterCondition filter = new FilterCondition();
+        filter.setProvince("湖北省");
+        List<ParseResult> filtered = suggestParser.suggest("新", 40, filter);
+        Assertions.assertEquals(20, filtered.size());
+        filtered.forEach(r -> Assertions.assertTrue(r.getTown().startsWith("新城第")));
+
+        List<ParseResult> scoped = suggestParser.suggest("新乡市新", 40);
+        Assertions.assertEquals(22, scoped.size());
+        scoped.forEach(r -> Assertions.assertEquals("新乡市", r.getCity()));
+
+        List<ParseResult> all = suggestParser.suggest("新", 60);
+        Assertions.assertEquals(42, all.size());
+        Assertions.assertEquals("新乡市", all.get(0).getCity());
+        Assertions.assertNull(all.get(0).getArea());
+    }
+
+    /**
+     * 拼音输入测试
+     * 全拼按音节匹配，首字母缩写有歧义时所有候选都会进入排序结果；街道只能按全拼匹配
+     */
+    @Test
+    void testPinyin() {
+        AddressParser pinyinParser = new AddressParser("cpca_2025.json",
+                ParserOptions.builder().pinyin(true).build());
+
+        List<ParseResult> results = pinyinParser.parse("Hubei Huangshi Xialu");
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals(results.get(0), parser.parse("湖北省黄石市下陆区").get(0));
+
+        List<RankedResult> ranked = pinyinParser.parseTopK("hbhs", 5);
+        Assertions.assertTrue(ranked.stream().anyMatch(r -> "黄石市".equals(r.getResult().getCity())));
+        ranked.forEach(r -> Assertions.assertEquals(r.getResult().getProvince(), "湖北省"));
+
+        // zz 同时是郑州、漳州的首字母
+        Set<String> cities = pinyinParser.parseTopK("zz", 10).stream()
+                .map(r -> r.getResult().getCity())
+                .collect(Collectors.toSet());
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("郑州市", "漳州市")), cities);
+
+        Assertions.assertTrue(pinyinParser.parseTopK("tcs", 5).stream().allMatch(r -> r.getResult().getTown() == null));
+        Assertions.assertEquals(pinyinParser.parse("tuanchengshan").get(0).getTown(), "团城山街道");
+
+        Assertions.assertEquals(parser.parse("湖北省黄石市下陆区"), pinyinParser.parse("湖北省黄石市下陆区"));
+    }
+
+    /**
+     * 按列批量解析测试
+     * 每行写出与 parse 排序第一的结果相同的代码，ambiguity 为同分结果数，未识别的行全为 0
+     */
+    @Test
+    void testParseColumns() {
+        List<String> addresses = Arrays.asList("湖北省黄石市下陆区团城山", "保安镇", "湖北黄石", null, "不存在的地址");
+        CodeColumns columns = new CodeColumns(addresses.size());
+        parser.parseColumns(addresses, columns);
+
+        Assertions.assertEquals(420000000L, columns.getProvinceCodes()[0]);
+        Assertions.assertEquals(420200000L, columns.getCityCodes()[0]);
+        Assertions.assertEquals(420204000L, columns.getAreaCodes()[0]);
+        Assertions.assertEquals(0L, columns.getTownCodes()[0]);
+        Assertions.assertEquals(1, columns.getAmbiguity()[0]);
+        Assertions.assertEquals(9, columns.getScores()[0]);
+
+        Assertions.assertEquals(parser.parse("保安镇").size(), columns.getAmbiguity()[1]);
+        Assertions.assertEquals(420200000L, columns.getCityCodes()[2]);
+
+        for (int row = 3; row < addresses.size(); row++) {
+            Assertions.assertEquals(0, columns.getAmbiguity()[row]);
+            Assertions.assertEquals(0L, columns.getProvinceCodes()[row]);
+        }
+    }
+
+    /**
+     * JSON 输出测试
+     * 结果与 parse 一致，每个结果另带各级代码
+     */
+    @Test
+    void testWriteResultJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parser.writeResultJson("湖北省黄石市下陆区团城山", out);
+        Assertions.assertEquals("[{\"province\":\"湖北省\",\"city\":\"黄石市\",\"area\":\"下陆区\",\"town\":null,"
+                        + "\"provinceCode\":\"420000000\",\"cityCode\":\"420200000\",\"areaCode\":\"420204000\",\"townCode\":null}]",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        parser.writeResultJson("保安镇", out);
+        ParseResult[] results = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .readValue(out.toByteArray(), ParseResult[].class);
+        Assertions.assertEquals(parser.parse("保安镇"), Arrays.asList(results));
+
+        out.reset();
+        parser.writeResultJson("", out);
+        Assertions.assertEquals("[]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        // 新解析器上多个线程同时首次写出同一批节点，结果与单线程一致
+        out.reset();
+        parser.writeResultJson("保安镇大王村", out);
+        byte[] expected = out.toByteArray();
+        AddressParser fresh = new AddressParser();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(pool.submit(() -> {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    fresh.writeResultJson("保安镇大王村", buffer);
+                    return buffer.toByteArray();
+                }));
+            }
+            for (Future<byte[]> future : futures) {
+                Assertions.assertArrayEquals(expected, future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 上下级区间查询测试
+     * 按区划代码与节点号查询直接下级、某层级的全部下级与个数，以及上下级关系
+     */
+    @Test
+    void testHierarchyRange() {
+        AddressIndex index = parser.getAddressIndex();
+
+        long[] towns = index.descendants("410422000", AddressLevel.TOWN);
+        Assertions.assertArrayEquals(new long[]{410422001L, 410422002L}, towns);
+        Assertions.assertEquals(index.children("410400000").length, index.count("410400000", AddressLevel.AREA));
+        Assertions.assertEquals(0, index.count("410422001", null));
+
+        Assertions.assertTrue(index.isAncestor("410000000", "410422001"));
+        Assertions.assertFalse(index.isAncestor("420000000", "410422001"));
+        Assertions.assertFalse(index.isAncestor("410422000", "410422000"));
+
+        int province = index.getNodeId("420000000");
+        int[] cities = index.children(province);
+        Assertions.assertTrue(cities.length > 0);
+        for (int city : cities) {
+            Assertions.assertEquals(AddressLevel.CITY, index.getLevel(city));
+            Assertions.assertEquals(province, index.getParent(city));
+            Assertions.assertTrue(index.isAncestor(province, city));
+        }
+        Assertions.assertEquals(-1, index.getNodeId("999999999"));
+    }
+
+    /**
+     * 先序编号测试
+     * 对每一对节点，区间判断的上下级关系与沿上级链逐层查找的结果一致，各层级下级个数与逐个统计一致
+     */
+    @Test
+    void testPreorderNumbering() {
+        AddressIndex index = parser.getAddressIndex();
+        int nodeCount = index.getNodeCount();
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            int parent = index.getParent(nodeId);
+            Assertions.assertTrue(parent < nodeId);
+            Assertions.assertEquals(index.getLevel(nodeId).ordinal(),
+                    parent < 0 ? 0 : index.getLevel(parent).ordinal() + 1);
+
+            int[] levelCounts = new int[AddressLevel.values().length];
+            for (int other = 0; other < nodeCount; other++) {
+                boolean ancestor = false;
+                for (int p = index.getParent(other); p >= 0 && !ancestor; p = index.getParent(p)) {
+                    ancestor = p == nodeId;
+                }
+                Assertions.assertEquals(ancestor, index.isAncestor(nodeId, other), nodeId + " -> " + other);
+                if (ancestor) {
+                    levelCounts[index.getLevel(other).ordinal()]++;
+                }
+            }
+            for (AddressLevel level : AddressLevel.values()) {
+                Assertions.assertEquals(levelCounts[level.ordinal()], index.count(nodeId, level));
+            }
+            Assertions.assertEquals(Arrays.stream(levelCounts).sum(), index.descendants(nodeId, null).length);
+        }
+    }
+
+    /**
+     * 两个关键词组合测试
+     * 走预计算组合索引的结果与完整流程（带空过滤条件时不走组合索引）一致
+     */
+    @Test
+    void testKeywordPair() {
+        FilterCondition none = new FilterCondition();
+        for (String address : Arrays.asList("叶县保安镇", "平顶山市保安镇", "洪山区保安镇", "湖北省下陆区", "黄石市团城山街道")) {
+            Assertions.assertEquals(parser.parse(address, none), parser.parse(address), address);
+        }
+
+        List<ParseResult> results = parser.parse("平顶山市保安镇");
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals(results.get(0).getArea(), "叶县");
+    }
+
+    /**
+     * 并行构建测试
+     * 并行构建得到的自动机与串行构建逐字节相同，索引的节点编号、关键词反查表与解析结果也完全一致
+     */
+    @Test
+    void testParallelBuild() {
+        AddressParser parallelParser = new AddressParser("cpca_2025.json",
+                ParserOptions.builder().parallelBuild(true).build());
+        Assertions.assertArrayEquals(parser.toBytes(), parallelParser.toBytes());
+
+        AddressIndex serial = parser.getAddressIndex();
+        AddressIndex parallel = parallelParser.getAddressIndex();
+        Assertions.assertEquals(serial.getNodeCount(), parallel.getNodeCount());
+        for (int nodeId = 0; nodeId < serial.getNodeCount(); nodeId++) {
+            Assertions.assertEquals(serial.getName(nodeId), parallel.getName(nodeId));
+            Assertions.assertEquals(serial.getCode(nodeId), parallel.getCode(nodeId));
+            Assertions.assertEquals(serial.getLevel(nodeId), parallel.getLevel(nodeId));
+            Assertions.assertEquals(serial.getParent(nodeId), parallel.getParent(nodeId));
+            Assertions.assertEquals(serial.count(nodeId, null), parallel.count(nodeId, null));
+        }
+        Assertions.assertEquals(serial.getAllKeywords(), parallel.getAllKeywords());
+        for (String keyword : serial.getAllKeywords()) {
+            Assertions.assertArrayEquals(serial.getNodeIds(keyword), parallel.getNodeIds(keyword), keyword);
+        }
+
+        for (String address : Arrays.asList("湖北省黄石市下陆区团城山", "保安镇", "保安镇大王村", "新疆伊犁霍尔果斯市",
+                "长泰县兴泰开发区", "平顶山市保安镇", "湖北黄石", "不存在的地址")) {
+            Assertions.assertEquals(parser.parse(address), parallelParser.parse(address), address);
+            Assertions.assertEquals(parser.parseTopK(address, 10), parallelParser.parseTopK(address, 10), address);
+        }
+        Assertions.assertEquals(parser.suggest("黄", 10, null), parallelParser.suggest("黄", 10, null));
+    }
+
+    /**
+     * 流式聚合测试
+     * 按节点计数并可汇总下级，歧义行按策略处理，多张计数表可以合并
+     */
+    @Test
+    void testAggregate() {
+        List<String> addresses = Arrays.asList("湖北省黄石市下陆区团城山", "湖北省黄石市下陆区", "下陆区团城山",
+                "叶县保安镇", "保安镇", "保安镇", "不存在的地址");
+        int towns = parser.parse("保安镇").size();
+
+        DivisionCounts skipped = parser.aggregate(addresses.iterator(), AmbiguityPolicy.SKIP);
+        Assertions.assertEquals(7, skipped.getRows());
+        Assertions.assertEquals(1, skipped.getUnmatched());
+        Assertions.assertEquals(2, skipped.getAmbiguous());
+        Assertions.assertEquals(3, skipped.getCount("420204000"));
+        Assertions.assertEquals(3, skipped.getTotal("420000000"));
+        Assertions.assertEquals(1, skipped.getTotal("410422000"));
+
+        DivisionCounts all = parser.aggregate(addresses.iterator(), AmbiguityPolicy.ALL);
+        Assertions.assertEquals(4 + 2 * towns, countedRows(all));
+        Assertions.assertEquals(3, all.getTotal("410422000"));
+
+        DivisionCounts first = parser.aggregate(addresses.iterator(), AmbiguityPolicy.FIRST);
+        Assertions.assertEquals(6, countedRows(first));
+
+        DivisionCounts common = parser.aggregate(addresses.iterator(), AmbiguityPolicy.COMMON_ANCESTOR);
+        Assertions.assertEquals(4, countedRows(common));
+
+        skipped.merge(parser.aggregate(addresses.iterator(), AmbiguityPolicy.SKIP));
+        Assertions.assertEquals(14, skipped.getRows());
+        Assertions.assertEquals(6, skipped.getTotal("420000000"));
+    }
+
+    /**
+     * 计数表合并校验测试
+     * 两个版本节点个数相同但数据不同，计数表不能互相合并或关联
+     */
+    @Test
+    void testAggregateDifferentDatasets(@TempDir Path dir) throws Exception {
+        Path v1 = dir.resolve("v1.json");
+        Path v2 = dir.resolve("v2.json");
+        Files.write(v1, ("[{\"name\":\"湖北省\",\"code\":\"420000000\",\"citys\":[{\"name\":\"黄石市\",\"code\":\"420200000\","
+                + "\"areas\":[{\"name\":\"下陆区\",\"code\":\"420204000\"}]}]}]").getBytes(StandardCharsets.UTF_8));
+        Files.write(v2, ("[{\"name\":\"湖北省\",\"code\":\"420000000\",\"citys\":[{\"name\":\"黄石市\",\"code\":\"420200000\","
+                + "\"areas\":[{\"name\":\"下陆新区\",\"code\":\"420205000\"}]}]}]").getBytes(StandardCharsets.UTF_8));
+        Map<String, Path> versions = new LinkedHashMap<>();
+        versions.put("v1", v1);
+        versions.put("v2", v2);
+        AddressDatasetRegistry registry = AddressDatasetRegistry.fromFiles(versions);
+        AddressParser first = registry.getParser("v1");
+        AddressParser second = registry.getParser("v2");
+        Assertions.assertEquals(first.getAddressIndex().getNodeCount(), second.getAddressIndex().getNodeCount());
+
+        List<String> addresses = Collections.singletonList("湖北省黄石市");
+        DivisionCounts counts = first.aggregate(addresses.iterator(), AmbiguityPolicy.SKIP);
+        DivisionCounts other = second.aggregate(addresses.iterator(), AmbiguityPolicy.SKIP);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> counts.merge(other));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> counts.attach(second));
+
+        counts.merge(first.aggregate(addresses.iterator(), AmbiguityPolicy.SKIP));
+        Assertions.assertEquals(2, counts.getRows());
+    }
+
+    private long countedRows(DivisionCounts counts) {
+        long total = 0;
+        for (Province province : parser.getAddressIndex().getProvinces()) {
+            total += counts.getTotal(province.getCode());
+        }
+        return total;
+    }
+
+    /**
+     * 续扫测试
+     * 有公共前缀的连续输入只扫描前缀之后的部分，匹配结果与从头扫描相同
+     */
+    @Test
+    void testResumableScan() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton();
+        automaton.addPatterns(Arrays.asList("湖北省", "黄石市", "下陆区", "黄石港区", "团城山街道"), false);
+        automaton.buildFailurePointers();
+        AhoCorasickAutomaton.ResumableScanner scanner = automaton.newScanner(AhoCorasickAutomaton.ALL_VERSIONS);
+
+        List<String> inputs = Arrays.asList("湖北省黄石市下陆区团城山街道1号", "湖北省黄石市下陆区团城山街道2号",
+                "湖北省黄石市黄石港区", "湖北省黄", "", "黄石市下陆区");
+        int[] skipped = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            List<AhoCorasickAutomaton.MatchResult> matches = new ArrayList<>();
+            skipped[i] = scanner.scan(inputs.get(i),
+                    (keyword, start, end) -> matches.add(new AhoCorasickAutomaton.MatchResult(keyword, start, end)));
+            Assertions.assertEquals(automaton.findAll(inputs.get(i)), matches, inputs.get(i));
+        }
+        Assertions.assertArrayEquals(new int[]{0, 14, 6, 4, 0, 0}, skipped);
+
+        List<String> sorted = Arrays.asList("湖北省黄石市下陆区团城山", "湖北省黄石市下陆区团城山街道", "湖北黄石", "湖北黄石下陆区");
+        CodeColumns columns = new CodeColumns(sorted.size());
+        parser.parseColumns(sorted, columns);
+        for (int row = 0; row < sorted.size(); row++) {
+            Assertions.assertEquals(parser.parse(sorted.get(row)).size(), columns.getAmbiguity()[row]);
+        }
+    }
+
     /**
      * 测试所有
      */
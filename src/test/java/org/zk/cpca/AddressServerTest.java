@@ -0,0 +1,297 @@
+package org.zk.cpca;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.zk.cpca.core.AddressParser;
+import org.zk.cpca.server.AddressHttpServer;
+import org.zk.cpca.server.AddressLoadGenerator;
+import org.zk.cpca.server.MicroBatcher;
+import org.zk.cpca.server.ServerMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP 服务、微批调度、指标与压测客户端测试
+ *
+ * @author zk
+ */
+public class AddressServerTest {
+    private static final long LONG_DELAY_MICROS = TimeUnit.SECONDS.toMicros(30);
+    private static final Pattern SAMPLE_LINE =
+            Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*(\\{le=\"[^\"]+\"})? -?[0-9.]+([eE]-?[0-9]+)?");
+
+    private AddressParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new AddressParser();
+    }
+
+    /**
+     * 按批量大小凑批测试
+     * 等待时间很长，凑满批量后立即提交，整批只计一次
+     */
+    @Test
+    void testFlushOnSize() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        try (MicroBatcher batcher = new MicroBatcher(parser, 1, 4, LONG_DELAY_MICROS, metrics)) {
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(batcher.submitJson("湖北省黄石市下陆区团城山"));
+            }
+            for (CompletableFuture<byte[]> future : futures) {
+                Assertions.assertArrayEquals(toJson("湖北省黄石市下陆区团城山"), future.get(5, TimeUnit.SECONDS));
+            }
+        }
+        Map<String, Double> samples = samples(metrics.render(0));
+        Assertions.assertEquals(1.0, samples.get("cpca_batches_total"));
+        Assertions.assertEquals(4.0, samples.get("cpca_batched_addresses_total"));
+    }
+
+    /**
+     * 按等待时间凑批测试
+     * 批量没有凑满时，等到时间上限后提交
+     */
+    @Test
+    void testFlushOnTime() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        try (MicroBatcher batcher = new MicroBatcher(parser, 1, 64, TimeUnit.MILLISECONDS.toMicros(50), metrics)) {
+            long start = System.nanoTime();
+            Assertions.assertEquals(parser.parse("保安镇"), batcher.submit("保安镇").get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        }
+        Map<String, Double> samples = samples(metrics.render(0));
+        Assertions.assertEquals(1.0, samples.get("cpca_batches_total"));
+        Assertions.assertEquals(1.0, samples.get("cpca_batched_addresses_total"));
+    }
+
+    /**
+     * 关闭测试
+     * 正在凑批（已从队列取出）的任务与关闭后提交的任务都以异常完成，不会一直挂起
+     */
+    @Test
+    void testCloseCompletesPending() throws Exception {
+        MicroBatcher batcher = new MicroBatcher(parser, 1, 64, LONG_DELAY_MICROS, new ServerMetrics());
+        List<CompletableFuture<byte[]>> pending = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pending.add(batcher.submitJson("保安镇"));
+        }
+        batcher.close();
+
+        for (CompletableFuture<byte[]> future : pending) {
+            assertRejected(future);
+        }
+        assertRejected(batcher.submitJson("保安镇"));
+    }
+
+    /**
+     * HTTP 往返测试
+     * GET 返回与 writeResultJson 相同的内容，POST 按行返回 NDJSON，指标随请求更新
+     */
+    @Test
+    void testParseRoundTrip() throws Exception {
+        try (AddressHttpServer server = new AddressHttpServer(parser, 0, 2, 16, 200)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort();
+
+            Response get = request("GET", base + "/parse?address=" + URLEncoder.encode("湖北省黄石市下陆区团城山", "UTF-8"), null);
+            Assertions.assertEquals(200, get.status);
+            Assertions.assertEquals(new String(toJson("湖北省黄石市下陆区团城山"), StandardCharsets.UTF_8), get.body);
+
+            Response post = request("POST", base + "/parse", "湖北省黄石市下陆区团城山\n保安镇\n");
+            Assertions.assertEquals(200, post.status);
+            String[] lines = post.body.split("\n");
+            Assertions.assertEquals(2, lines.length);
+            Assertions.assertEquals("{\"address\":\"保安镇\",\"results\":"
+                    + new String(toJson("保安镇"), StandardCharsets.UTF_8) + "}", lines[1]);
+
+            Assertions.assertEquals(400, request("GET", base + "/parse", null).status);
+            Assertions.assertEquals(400, request("POST", base + "/parse", "[\"保安镇\",").status);
+
+            Map<String, Double> samples = samples(request("GET", base + "/metrics", null).body);
+            Assertions.assertEquals(2.0, samples.get("cpca_requests_total"));
+            Assertions.assertEquals(1.0, samples.get("cpca_errors_total"));
+            Assertions.assertEquals(3.0, samples.get("cpca_addresses_total"));
+        }
+    }
+
+    /**
+     * 流式输出中途失败测试
+     * 响应头已经发出后某一行解析失败，不会再次发送响应头，已写出的行保留，服务继续可用
+     */
+    @Test
+    void testFailureAfterHeadersSent() throws Exception {
+        AddressParser failing = new AddressParser() {
+            @Override
+            public void writeResultJson(String address, OutputStream out) throws IOException {
+                if ("boom".equals(address)) {
+                    throw new IllegalStateException("boom");
+                }
+                super.writeResultJson(address, out);
+            }
+        };
+        try (AddressHttpServer server = new AddressHttpServer(failing, 0, 1, 1, 200)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort();
+
+            Response post = request("POST", base + "/parse", "保安镇\nboom\n保安镇\n");
+            Assertions.assertEquals(200, post.status);
+            Assertions.assertTrue(post.body.startsWith("{\"address\":\"保安镇\",\"results\":"), post.body);
+            Assertions.assertFalse(post.body.contains("boom"), post.body);
+
+            Assertions.assertEquals(200, request("GET", base + "/parse?address=abc", null).status);
+            // 解析失败的任务与中断的请求各记一次
+            Assertions.assertEquals(2.0, samples(request("GET", base + "/metrics", null).body).get("cpca_errors_total"));
+        }
+    }
+
+    /**
+     * 超时测试
+     * 等待时间内拿不到结果时返回 503，而不是一直挂起
+     */
+    @Test
+    void testTimeoutReturns503() throws Exception {
+        try (AddressHttpServer server = new AddressHttpServer(parser, 0, 1, 64, LONG_DELAY_MICROS, 200)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort();
+
+            Assertions.assertEquals(503, request("GET", base + "/parse?address=abc", null).status);
+            Assertions.assertEquals(503, request("POST", base + "/parse", "保安镇\n").status);
+        }
+    }
+
+    /**
+     * 指标格式测试
+     * 每行都是合法的 Prometheus 文本格式，直方图的桶累计递增，+Inf 桶等于总数
+     */
+    @Test
+    void testMetricsFormat() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.recordRequest(3, TimeUnit.MICROSECONDS.toNanos(80));
+        metrics.recordRequest(1, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordRequest(1, TimeUnit.SECONDS.toNanos(5));
+        metrics.recordBatch(5);
+        metrics.recordError();
+
+        String text = metrics.render(7);
+        Assertions.assertTrue(text.endsWith("\n"));
+        double previous = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                Assertions.assertTrue(line.matches("# TYPE cpca_[a-z_]+ (counter|gauge|histogram)"), line);
+                continue;
+            }
+            Assertions.assertTrue(SAMPLE_LINE.matcher(line).matches(), line);
+            if (line.startsWith("cpca_request_latency_seconds_bucket")) {
+                double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                Assertions.assertTrue(value >= previous, line);
+                previous = value;
+            }
+        }
+
+        Map<String, Double> samples = samples(text);
+        Assertions.assertEquals(3.0, samples.get("cpca_requests_total"));
+        Assertions.assertEquals(5.0, samples.get("cpca_addresses_total"));
+        Assertions.assertEquals(1.0, samples.get("cpca_errors_total"));
+        Assertions.assertEquals(7.0, samples.get("cpca_queue_size"));
+        Assertions.assertEquals(1.0, samples.get("cpca_request_latency_seconds_bucket{le=\"1.0E-4\"}"));
+        Assertions.assertEquals(3.0, samples.get("cpca_request_latency_seconds_bucket{le=\"+Inf\"}"));
+        Assertions.assertEquals(3.0, samples.get("cpca_request_latency_seconds_count"));
+    }
+
+    /**
+     * 压测客户端测试
+     * 对本地服务短时间压测，请求全部成功并给出延迟分位数
+     */
+    @Test
+    void testLoadGenerator() throws Exception {
+        try (AddressHttpServer server = new AddressHttpServer(parser, 0, 2, 16, 200)) {
+            server.start();
+            AddressLoadGenerator.Report report = AddressLoadGenerator.run("http://localhost:" + server.getPort(),
+                    Arrays.asList("湖北省黄石市下陆区团城山", "保安镇大王村"), 2, TimeUnit.MILLISECONDS.toNanos(300));
+
+            Assertions.assertTrue(report.getRequests() > 0);
+            Assertions.assertEquals(0, report.getErrors());
+            Assertions.assertTrue(report.throughput() > 0);
+            Assertions.assertTrue(report.percentileMillis(0.99) >= report.percentileMillis(0.50));
+            Assertions.assertTrue(report.percentileMillis(0.50) > 0);
+        }
+    }
+
+    private byte[] toJson(String address) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parser.writeResultJson(address, out);
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(CompletableFuture<?> future) throws Exception {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    /**
+     * 指标名（含标签）-> 数值，忽略注释行
+     */
+    private static Map<String, Double> samples(String text) {
+        Map<String, Double> samples = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (!line.startsWith("#") && !line.isEmpty()) {
+                int space = line.lastIndexOf(' ');
+                samples.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+            }
+        }
+        return samples;
+    }
+
+    private static Response request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5_000);
+        connection.setReadTimeout(10_000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] chunk = new byte[4096];
+            int n;
+            while (in != null && (n = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+        }
+        return new Response(status, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}